@@ -0,0 +1,83 @@
+package com.domoes.APIs;
+
+import okio.BufferedSource;
+import okio.Okio;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by liufei on 2019/7/30.
+ * CreateContentJS返回数据解析的性能对比
+ *   streaming: ContentExtractor从响应流中顺序扫描
+ *   wholeString: 原来的方式, 先把整个响应转成字符串, 再indexOf/substring, 最后还原\"
+ *
+ * 数据用测试资源中的样本, 把文书内容重复扩大到contentKB大小
+ * 运行: mvn -Pbenchmark test-compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentExtractorBenchmark {
+    private static final String contentBegin = "\\\"Html\\\":\\\"";
+    private static final String paragraph = "<div style=\\\"LINE-HEIGHT: 25pt; TEXT-INDENT: 30pt\\\">本院认为, 被告人的行为已构成犯罪, 公诉机关指控的事实清楚.</div>";
+
+    @Param({"16", "256", "2048"})
+    private int contentKB;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() throws IOException {
+        String sample;
+        try (InputStream in = ContentExtractorBenchmark.class.getResourceAsStream("/createcontentjs.txt");
+             BufferedSource source = Okio.buffer(Okio.source(in))) {
+            sample = source.readUtf8();
+        }
+
+        // 在文书内容开始处插入重复的段落
+        int count = contentKB * 1024 / paragraph.getBytes(StandardCharsets.UTF_8).length + 1;
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < count; ++i)
+            content.append(paragraph);
+        int pos = sample.indexOf(contentBegin) + contentBegin.length();
+        data = (sample.substring(0, pos) + content + sample.substring(pos)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) throws IOException {
+        ContentExtractor extractor = new ContentExtractor();
+        try (BufferedSource source = Okio.buffer(Okio.source(new ByteArrayInputStream(data)))) {
+            if (!extractor.extract(source))
+                throw new IllegalStateException(extractor.getError());
+        }
+        blackhole.consume(extractor.getCaseInfo());
+        blackhole.consume(extractor.getContent());
+    }
+
+    @Benchmark
+    public void wholeString(Blackhole blackhole) throws IOException {
+        String data;
+        try (BufferedSource source = Okio.buffer(Okio.source(new ByteArrayInputStream(this.data)))) {
+            data = source.readUtf8();
+        }
+
+        int begin = data.indexOf("stringify({");
+        int end = data.indexOf("});", begin);
+        String caseInfo = data.substring(begin + 10, end + 1);
+        begin = data.indexOf(contentBegin);
+        end = data.indexOf("\\\"}\";", begin);
+        String content = data.substring(begin + 11, end).replace("\\\"", "\"");
+
+        blackhole.consume(caseInfo);
+        blackhole.consume(content);
+    }
+}
@@ -1,229 +1,136 @@
 package com.domoes.APIs;
 
-import com.domoes.Driver;
-import com.domoes.mongodb.MongoUtils;
-import com.domoes.utils.TaskCounter;
-import com.domoes.utils.UnzippingInterceptor;
 import com.google.common.util.concurrent.RateLimiter;
-import okhttp3.*;
-import org.openqa.selenium.Cookie;
-import org.openqa.selenium.JavascriptExecutor;
-import org.openqa.selenium.Proxy;
-import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.chrome.ChromeDriver;
-import org.openqa.selenium.chrome.ChromeOptions;
-import org.openqa.selenium.remote.RemoteWebDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.UnsupportedEncodingException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
-import java.net.InetSocketAddress;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Created by liufei on 2019/6/22.
  * API接口调度器
- *   获取服务端API所需参数
+ *   管理浏览器会话池, 每个会话有独立的driver, cookie, guid/vl5x和代理
+ *   任务通过leaseSession/releaseSession借用和归还会话
  */
 public class APIScheduler {
     private static final Logger logger = LoggerFactory.getLogger(APIScheduler.class);
-    private static WebDriver driver;
-    private static boolean useProxy;
-    private static String proxyHost;
-    private static int proxyPort;
     private static boolean headless;
 
-    private static OkHttpClient okHttpClient;
-    private static JavascriptExecutor jsExecutor;
-    private static RateLimiter rateLimiter;
-    private static int waitMiliSecondsForLimiter;
+    private static RateLimiter rateLimiter;          // 浏览器操作的限流, 接口请求使用各会话自己的限流器
     private static boolean switchIp;
+    private static boolean localDecrypt;
 
-    private static String cookieStr;
-    private static String guidStr;
-    private static String vl5xStr;
-
-    // proxy switch记录
-    private static String lastProxyIp;
-    private static long lastSwitchTime;
-    private static TaskCounter proxyIpCounter = new TaskCounter(100000, 30, Integer.MAX_VALUE);
+    // 所有会话, 以及当前空闲的会话
+    private static List<APISession> sessions = new ArrayList<>();
+    private static BlockingQueue<APISession> idleSessions = new LinkedBlockingQueue<>();
+    private static AtomicInteger nextSessionIndex = new AtomicInteger();
 
     public final static String cookiePageUrl = "http://wenshu.court.gov.cn/List/List?sorttype=1&conditions=searchWord+1+AJLX++%E6%A1%88%E4%BB%B6%E7%B1%BB%E5%9E%8B:%E5%88%91%E4%BA%8B%E6%A1%88%E4%BB%B6";
-    private static Pattern docIdPattern;
-
-    // 主窗口 (tab页, 只在这个tab页里刷新ip和cookie)
-    private static String mainWindow;
-
-    public static boolean init(boolean useProxy, boolean useRemoteDriver, boolean headless, String proxyIpAndPort, double rateLimit, boolean switchIp) {
-        logger.info("useProxy = {}, useRemoteDriver = {}, headless = {}, proxyIpAndPort = {}", useProxy, useRemoteDriver, headless, proxyIpAndPort);
-        APIScheduler.useProxy = useProxy;
+    private static final Pattern docIdPattern = Pattern.compile("\\S{8}-\\S{4}-\\S{4}-\\S{4}-\\S{12}");
+
+    /**
+     * 创建会话池
+     * @param proxyIpAndPort 代理地址, 多个代理用,分隔, 会话按顺序绑定到各个代理上
+     * @param rateLimit 浏览器操作的限流, 也是每个会话接口请求的初始速率
+     * @param minRateLimit 会话接口请求的最低速率
+     * @param maxRateLimit 会话接口请求的最高速率
+     * @param sessionCount 会话数量 (即同时运行的chrome实例数量)
+     * @param localDecrypt 是否使用本地js引擎解密列表数据
+     */
+    public static boolean init(boolean useProxy, boolean useRemoteDriver, boolean headless, String proxyIpAndPort,
+                               double rateLimit, double minRateLimit, double maxRateLimit, boolean switchIp,
+                               int sessionCount, boolean localDecrypt) {
+        logger.info("useProxy = {}, useRemoteDriver = {}, headless = {}, proxyIpAndPort = {}, sessionCount = {}",
+                useProxy, useRemoteDriver, headless, proxyIpAndPort, sessionCount);
         APIScheduler.switchIp = switchIp;
         APIScheduler.headless = headless;
-        ChromeOptions options = new ChromeOptions();
-
-        if (useProxy) {
-            Proxy proxy = new Proxy();
-            proxy.setHttpProxy(proxyIpAndPort).setFtpProxy(proxyIpAndPort).setSslProxy(proxyIpAndPort);
-            logger.info("set socket proxy {}", proxyIpAndPort);
-            options.setProxy(proxy);
-
-            parseProxyHost(proxyIpAndPort);
-        }
-        options.setHeadless(headless);
+        APIScheduler.localDecrypt = localDecrypt;
 
-        options.addArguments("start-maximized"); // open Browser in maximized mode
-        options.addArguments("disable-infobars"); // disabling infobars
-        options.addArguments("--disable-extensions"); // disabling extensions
-        options.addArguments("--disable-gpu"); // applicable to windows os only
-        options.addArguments("--disable-dev-shm-usage"); // overcome limited resource problems
-        options.addArguments("--no-sandbox"); // Bypass OS security model
+        rateLimiter = RateLimiter.create(rateLimit);
 
-        if (useRemoteDriver) {
-            try {
-                driver = new RemoteWebDriver(options);
-            } catch (Exception e) {
-                logger.error("create remote driver failed. {}", e.getMessage());
-                return false;
+        String[] proxies = proxyIpAndPort.split(",");
+        for (int i = 0; i < Math.max(1, sessionCount); i++) {
+            APISession session = new APISession(i, useProxy ? proxies[i % proxies.length].trim() : null,
+                    new AdaptiveRateLimiter("session " + i, rateLimit, minRateLimit, maxRateLimit));
+            if (!session.init(useRemoteDriver, headless)) {
+                logger.error("session {} init failed.", i);
+                session.stop();
+                continue;
             }
-        } else {
-            String driverPath = System.getProperty("webdriver.chrome.driver");
-            if (driverPath == null) {
-                logger.error("must set webdriver.chrome.driver property in local driver mode.");
-                return false;
-            } else
-                logger.info("webdriver.chrome.driver = {}", driverPath);
-            driver = new ChromeDriver(options);
+            sessions.add(session);
+            idleSessions.add(session);
         }
 
-        rateLimiter = RateLimiter.create(rateLimit);
-        waitMiliSecondsForLimiter = (int)(1000 / rateLimit);
+        return !sessions.isEmpty();
+    }
 
-        docIdPattern = Pattern.compile("\\S{8}-\\S{4}-\\S{4}-\\S{4}-\\S{12}");
+    // 借用一个空闲会话, 如果没有空闲会话会一直等待
+    // 使用完后必须调用releaseSession归还
+    public static APISession leaseSession() {
+        APISession session;
+        try {
+            session = idleSessions.take();
+        } catch (InterruptedException e) {
+            logger.warn("interrupted at lease session. {}", e.getMessage());
+            return null;
+        }
 
-        driver.get(cookiePageUrl);
-        return refresh("system initialize");
+        session.checkRefresh();
+        return session;
     }
 
-    // 检查是否需要更换ip
-    // 这个接口用于定时检查是否要换ip, 如果5分钟内刚刚换过ip, 则不需要再换
-    public static void checkRefresh() {
-        if (switchIp && System.currentTimeMillis() - lastSwitchTime > 5 * 60 * 1000)
-            refresh("period refresh ip");
+    // 按顺序选择一个会话, 只用于读取cookie和guid/vl5x发起http请求, 不会占用会话
+    // 不能用返回的会话操作浏览器
+    static APISession nextSession() {
+        return sessions.get(Math.floorMod(nextSessionIndex.getAndIncrement(), sessions.size()));
     }
 
-    // 刷新参数
-    // message表示是因为什么原因需要刷新ip
-    static boolean refresh(String message) {
-        int loopCount = 0;
-        int maxLoopCount = 50;      // 最多尝试50次
-
-        // 第一次refresh必须调用, 否则jsExecutor会一直是null
-        //if (jsExecutor != null && !switchIp)
-        //    return true;
-
-        if (switchIp)
-            switchIp(message);
-
-        do {
-            // 先删除cookie后重新获取
-            try {
-                if (driver != null)
-                    driver.manage().deleteAllCookies();
-            } catch (Exception e) {
-                logger.warn("exception at delete cookies. {}", e.getMessage());
-                // 如果异常是invalid session id, 只能退出重启
-                if (e.getMessage().startsWith("invalid session id")) {
-                    Driver.stop();
-                    Runtime.getRuntime().exit(0);
-                }
-                break;
-            }
-
-            if (!joinCookies()) {
-                logger.error("get cookie failed.");
-                continue;
-            }
-
-            if (driver instanceof JavascriptExecutor) {
-                jsExecutor = (JavascriptExecutor) driver;
-            } else {
-                logger.error("driver is not a JavascriptExecutor");
-                continue;
-            }
-
-            // 生成guid
-            guidStr = String.format("%s%s-%s-%s%s-%s%s%s",
-                    randomString(jsExecutor), randomString(jsExecutor),
-                    randomString(jsExecutor),
-                    randomString(jsExecutor), randomString(jsExecutor),
-                    randomString(jsExecutor), randomString(jsExecutor), randomString(jsExecutor));
-            logger.info("guid is {}", guidStr);
-            guidStr = encodeValue(guidStr);
-
-            // 计算vl5x
-            vl5xStr = callGetKey(jsExecutor);
-            if (vl5xStr == null) {
-                logger.error("failed to get key.");
-                continue;
-            }
-            vl5xStr = encodeValue(vl5xStr);
-
-            if (okHttpClient == null) {
-                if (useProxy) {
-                    logger.info("okhttp by proxy");
-                    java.net.Proxy proxy = new java.net.Proxy(java.net.Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort));
-                    okHttpClient = new OkHttpClient.Builder()
-                            .connectTimeout(30, TimeUnit.SECONDS)
-                            .readTimeout(30, TimeUnit.SECONDS)
-                            .proxy(proxy)
-                            .connectionPool(new ConnectionPool(5, 1, TimeUnit.MINUTES))
-                            .addInterceptor(new UnzippingInterceptor())
-                            .build();
-                } else {
-                    okHttpClient = new OkHttpClient.Builder()
-                            .connectTimeout(30, TimeUnit.SECONDS)
-                            .readTimeout(30, TimeUnit.SECONDS)
-                            .connectionPool(new ConnectionPool(5, 1, TimeUnit.MINUTES))
-                            .addInterceptor(new UnzippingInterceptor())
-                            .build();
-                }
-            }
-
-            break;
-        } while (++loopCount < maxLoopCount);
-
-        return vl5xStr != null;
+    // 借用指定的会话, 该会话正在使用时返回false
+    static boolean tryLeaseSession(APISession session) {
+        return idleSessions.remove(session);
     }
 
-    // 获取driver对象后会用于发http请求, rateLimit使用数量加1
-    public static WebDriver getDriver() {
-        rateLimiter.tryAcquire(waitMiliSecondsForLimiter, TimeUnit.MILLISECONDS);
-        return driver;
+    static List<APISession> getSessions() {
+        return sessions;
     }
 
-    // 获取okhttp对象后会用于发http请求, rateLimit使用数量也加1
-    static OkHttpClient getOkHttpClient() {
-        rateLimiter.tryAcquire(waitMiliSecondsForLimiter, TimeUnit.MILLISECONDS);
-        return okHttpClient;
+    // 归还会话
+    public static void releaseSession(APISession session) {
+        if (session != null)
+            idleSessions.add(session);
     }
 
-    // 限流计数加1, 超时时间为1s, 超过1s后会恢复
-    public static void acquireRateLimit() {
-        rateLimiter.tryAcquire(waitMiliSecondsForLimiter, TimeUnit.MILLISECONDS);
+    // 检查是否需要更换ip
+    // 这个接口用于定时检查是否要换ip, 只处理当前空闲的会话, 正在使用的会话在下次借用时检查
+    public static void checkRefresh() {
+        int count = idleSessions.size();
+        for (int i = 0; i < count; i++) {
+            APISession session = idleSessions.poll();
+            if (session == null)
+                break;
+            try {
+                session.checkRefresh();
+            } finally {
+                idleSessions.add(session);
+            }
+        }
     }
 
-    public static JavascriptExecutor getJsExecutor() {
-        return jsExecutor;
+    // 浏览器操作的限流, 等待直到拿到许可
+    public static void acquireRateLimit() {
+        rateLimiter.acquire();
     }
 
     public static String encodeValue(String value) {
@@ -250,158 +157,20 @@ public class APIScheduler {
         return m.find();
     }
 
-    private static String randomString(JavascriptExecutor jsExecutor) {
-        try {
-            Object result = jsExecutor.executeScript("return createGuid();");
-            logger.info("createGuid() result: {}", result.toString());
-            if (result instanceof String)
-                return (String) result;
-        } catch (Exception e) {
-            logger.debug("exception at jsExecutor.executeScript createGuid(). {}", e.toString());
-        }
-
-        logger.error("generate random guid string failed.");
-        return "d3s9";
-    }
-
-    private static String callGetKey(JavascriptExecutor jsExecutor) {
-        try {
-            Object result = jsExecutor.executeScript("return getKey();");
-            logger.info("getKey() result: {}", result.toString());
-            if (result instanceof String)
-                return (String) result;
-        } catch (Exception e) {
-            logger.debug("exception at jsExecutor.executeScript getKey(). {}", e.toString());
-        }
-
-        logger.error("getKey() failed.");
-        return null;
-    }
-
-    static String getGUID() {
-        return guidStr;
-    }
-
-    static String getVl5x() {
-        return vl5xStr;
-    }
-
-    static String getCookie() {
-        return cookieStr;
-    }
-
-    static boolean isProxyMode() {
-        return useProxy;
-    }
-
     static boolean isHeadless() {
         return headless;
     }
 
-    private static void parseProxyHost(String ipAndPort) {
-        String[] items = ipAndPort.split(":");
-        if (items.length != 2) {
-            logger.warn("invalid ipAndPort {}", ipAndPort);
-            return;
-        }
-
-        proxyHost = items[0];
-        try {
-            proxyPort = Integer.parseInt(items[1]);
-        } catch (Exception e) {
-            logger.warn("exception at parse ipAndPort {}, {}", ipAndPort, e.getMessage());
-        }
-    }
-
-    // 切换ip
-    private static void switchIp(String reason) {
-        logger.info("useProxy={}", useProxy);
-        if (useProxy) {
-            String url = driver.getCurrentUrl();
-            logger.info("switch ip, current url: {}", url);
-            driver.get("http://proxy.abuyun.com/switch-ip");
-            String result = driver.getPageSource();
-            logger.info("switch ip result: {}. start load main page for cookie...", result);
-
-            try {
-                result = result.replaceAll("</?.+?/?>", "");
-                logger.info("switch ip result: {}", result);
-                String[] items = result.split(",");
-                if (items.length < 3)
-                    logger.warn("invalid switch ip result. {}", result);
-                else {
-                    // 记录切换ip的行为
-                    String oldIp = lastProxyIp;
-                    lastProxyIp = items[0];
-                    lastSwitchTime = System.currentTimeMillis();
-                    MongoUtils.insertSwitchIpRecord(lastProxyIp, result, oldIp, reason, getProcessName());
-
-                    checkIpUsability();
-                }
-            } catch (Exception e) {
-                logger.warn("exception at switch ip. {}", e.getMessage());
-            }
-
-            // 重新回到原来的url
-            acquireRateLimit();
-            driver.navigate().to(url);
-        }
+    static boolean isSwitchIp() {
+        return switchIp;
     }
 
-    // 检查IP的可用性 (只是检查, 因为abuyun有限制, 并不能立即切换ip)
-    private static void checkIpUsability() {
-        // 当前检查条件: 半小时内重复出现的就报警
-        proxyIpCounter.incCount(lastProxyIp);
-        int count = proxyIpCounter.getCount(lastProxyIp);
-        if (count > 2)
-            logger.warn("ip {} returned {} times in 30 minutes.", lastProxyIp, count);
-    }
-
-    private static boolean joinCookies() {
-        // 先保留当前tab, 在定时刷新ip的时候有可能打开了多个tab, 需要回到主tab页去刷新, 然后再回到原来的tab页
-        String currentWindow = driver.getWindowHandle();
-        if (mainWindow == null)
-            mainWindow = currentWindow;
-
-        // 获取cookie (必须在列表页获取完整cookie, 在首页只能拿到有限的几条cookie)
-        logger.info("start load main page for cookie...");
-        acquireRateLimit();
-        String url;
-        try {
-            if (!currentWindow.equals(mainWindow))
-                driver.switchTo().window(mainWindow);
-            url = driver.getCurrentUrl();
-            driver.get(cookiePageUrl);
-        } catch (Exception e) {
-            logger.warn("exception at get cookie url. {}", e.getMessage());
-            return false;
-        }
-
-        logger.info("cookie info:");
-        try {
-            List<String> cookies = new ArrayList<>();
-            Set<Cookie> allCookies = driver.manage().getCookies();
-            for (Cookie loadedCookie : allCookies) {
-                logger.info("{} -> {}", loadedCookie.getName(), loadedCookie.getValue());
-                cookies.add(loadedCookie.getName() + "=" + loadedCookie.getValue());
-            }
-            cookieStr = String.join("; ", cookies);
-            logger.info("cookie string: {}", cookieStr);
-        } catch (Exception e) {
-            logger.warn("exception. {}", e.getMessage());
-            return false;
-        } finally {
-            // 返回原来的tab页
-            driver.navigate().to(url);
-            if (!currentWindow.equals(mainWindow))
-                driver.switchTo().window(currentWindow);
-        }
-
-        return true;
+    static boolean isLocalDecrypt() {
+        return localDecrypt;
     }
 
     // 获取进程名
-    private static String getProcessName() {
+    static String getProcessName() {
         RuntimeMXBean runtimeMXBean = ManagementFactory.getRuntimeMXBean();
         if (runtimeMXBean != null)
             return runtimeMXBean.getName();
@@ -409,7 +178,7 @@ public class APIScheduler {
     }
 
     public static void stop() {
-        if (driver != null)
-            driver.quit();
+        for (APISession session : sessions)
+            session.stop();
     }
 }
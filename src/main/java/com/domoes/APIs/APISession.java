@@ -0,0 +1,396 @@
+package com.domoes.APIs;
+
+import com.domoes.Driver;
+import com.domoes.mongodb.MongoUtils;
+import com.domoes.pages.NetworkCapture;
+import com.domoes.utils.UnzippingInterceptor;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.Proxy;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by liufei on 2019/7/20.
+ * 浏览器会话
+ *   每个会话有独立的driver, cookie, guid/vl5x和代理, 由APIScheduler统一管理
+ *   同一时间一个会话只能被一个任务使用 (通过APIScheduler.leaseSession获取)
+ */
+public class APISession {
+    private static final Logger logger = LoggerFactory.getLogger(APISession.class);
+
+    private final int id;
+    private final String proxyIpAndPort;        // 为null表示不走代理
+    private String proxyHost;
+    private int proxyPort;
+
+    private WebDriver driver;
+    private JavascriptExecutor jsExecutor;
+    private OkHttpClient okHttpClient;
+    private volatile LocalDecrypter localDecrypter;     // 为null时使用浏览器解密
+    private final AdaptiveRateLimiter rateLimiter;      // 接口请求的限流, 按返回结果调整速率
+
+    // 当前的cookie和guid/vl5x, 刷新时整组替换
+    private volatile SessionTokens tokens;
+
+    // proxy switch记录
+    private String lastProxyIp;
+    private long lastSwitchTime;
+
+    // 主窗口 (tab页, 只在这个tab页里刷新ip和cookie)
+    private String mainWindow;
+
+    // 未借用会话时发现需要刷新 (如异步请求返回remind key), 在下次借用时刷新
+    private volatile String pendingRefresh;
+
+    APISession(int id, String proxyIpAndPort, AdaptiveRateLimiter rateLimiter) {
+        this.id = id;
+        this.proxyIpAndPort = proxyIpAndPort;
+        this.rateLimiter = rateLimiter;
+    }
+
+    // 创建浏览器并获取第一组参数
+    boolean init(boolean useRemoteDriver, boolean headless) {
+        logger.info("session {} init, proxyIpAndPort = {}", id, proxyIpAndPort);
+        ChromeOptions options = new ChromeOptions();
+
+        if (proxyIpAndPort != null) {
+            Proxy proxy = new Proxy();
+            proxy.setHttpProxy(proxyIpAndPort).setFtpProxy(proxyIpAndPort).setSslProxy(proxyIpAndPort);
+            logger.info("set socket proxy {}", proxyIpAndPort);
+            options.setProxy(proxy);
+
+            parseProxyHost(proxyIpAndPort);
+        }
+        options.setHeadless(headless);
+
+        options.addArguments("start-maximized"); // open Browser in maximized mode
+        options.addArguments("disable-infobars"); // disabling infobars
+        options.addArguments("--disable-extensions"); // disabling extensions
+        options.addArguments("--disable-gpu"); // applicable to windows os only
+        options.addArguments("--disable-dev-shm-usage"); // overcome limited resource problems
+        options.addArguments("--no-sandbox"); // Bypass OS security model
+
+        if (useRemoteDriver) {
+            try {
+                driver = new RemoteWebDriver(options);
+            } catch (Exception e) {
+                logger.error("create remote driver failed. {}", e.getMessage());
+                return false;
+            }
+        } else {
+            String driverPath = System.getProperty("webdriver.chrome.driver");
+            if (driverPath == null) {
+                logger.error("must set webdriver.chrome.driver property in local driver mode.");
+                return false;
+            } else
+                logger.info("webdriver.chrome.driver = {}", driverPath);
+            driver = new ChromeDriver(options);
+        }
+
+        driver.get(APIScheduler.cookiePageUrl);
+        return refresh("system initialize");
+    }
+
+    // 检查是否需要更换ip
+    // 如果5分钟内刚刚换过ip, 则不需要再换
+    void checkRefresh() {
+        String reason = pendingRefresh;
+        if (reason != null)
+            refresh(reason);
+        else if (APIScheduler.isSwitchIp() && System.currentTimeMillis() - lastSwitchTime > 5 * 60 * 1000)
+            refresh("period refresh ip");
+    }
+
+    // 标记会话需要刷新, 用于没有借用会话的调用方
+    // 由TokenManager在会话空闲时刷新, 或者在下次借用时刷新
+    void markRefresh(String reason) {
+        logger.info("session {} mark refresh, reason: {}", id, reason);
+        pendingRefresh = reason;
+    }
+
+    // 需要提前刷新的原因, 不需要刷新时返回null
+    String refreshReason(long maxAgeMillis, double maxFailureRate) {
+        String reason = pendingRefresh;
+        if (reason != null)
+            return reason;
+
+        SessionTokens current = tokens;
+        if (current == null)
+            return "tokens not initialized";
+        if (maxAgeMillis > 0 && current.getAge() > maxAgeMillis)
+            return "tokens expired, age " + current.getAge() / 1000 + "s";
+        if (maxFailureRate > 0 && current.getFailureRate() > maxFailureRate)
+            return "tokens failure rate " + current.getFailureRate();
+        return null;
+    }
+
+    // 刷新参数
+    // message表示是因为什么原因需要刷新ip
+    public boolean refresh(String message) {
+        int loopCount = 0;
+        int maxLoopCount = 50;      // 最多尝试50次
+
+        logger.info("session {} refresh, reason: {}", id, message);
+        pendingRefresh = null;
+        if (APIScheduler.isSwitchIp())
+            switchIp(message);
+
+        do {
+            // 先删除cookie后重新获取
+            try {
+                if (driver != null)
+                    driver.manage().deleteAllCookies();
+            } catch (Exception e) {
+                logger.warn("exception at delete cookies. {}", e.getMessage());
+                // 如果异常是invalid session id, 只能退出重启
+                if (e.getMessage().startsWith("invalid session id")) {
+                    Driver.stop();
+                    Runtime.getRuntime().exit(0);
+                }
+                break;
+            }
+
+            String cookie = joinCookies();
+            if (cookie == null) {
+                logger.error("get cookie failed.");
+                continue;
+            }
+
+            if (driver instanceof JavascriptExecutor) {
+                jsExecutor = (JavascriptExecutor) driver;
+            } else {
+                logger.error("driver is not a JavascriptExecutor");
+                continue;
+            }
+
+            // 生成guid并计算vl5x
+            String[] guidAndKey = callGuidAndKey();
+            if (guidAndKey == null) {
+                logger.error("failed to get key.");
+                continue;
+            }
+            logger.info("guid is {}", guidAndKey[0]);
+            tokens = new SessionTokens(cookie, APIScheduler.encodeValue(guidAndKey[0]), APIScheduler.encodeValue(guidAndKey[1]));
+
+            // 加载本地解密引擎 (失败时继续使用浏览器解密)
+            if (APIScheduler.isLocalDecrypt() && localDecrypter == null)
+                localDecrypter = LocalDecrypter.create(jsExecutor, httpClient());
+
+            break;
+        } while (++loopCount < maxLoopCount);
+
+        return tokens != null;
+    }
+
+    // 一次脚本调用生成guid (8段createGuid()) 并计算vl5x, 返回 {guid, vl5x}
+    private String[] callGuidAndKey() {
+        String script = "var g = []; for (var i = 0; i < 8; i++) g.push(createGuid());" +
+                "return [g[0] + g[1] + '-' + g[2] + '-' + g[3] + g[4] + '-' + g[5] + g[6] + g[7], getKey()];";
+        try {
+            Object result = jsExecutor.executeScript(script);
+            logger.info("createGuid() and getKey() result: {}", result);
+            if (result instanceof List && ((List<?>) result).size() == 2) {
+                List<?> values = (List<?>) result;
+                if (values.get(0) instanceof String && values.get(1) instanceof String)
+                    return new String[] {(String) values.get(0), (String) values.get(1)};
+            }
+        } catch (Exception e) {
+            logger.debug("exception at jsExecutor.executeScript createGuid() and getKey(). {}", e.toString());
+        }
+
+        logger.error("createGuid() or getKey() failed.");
+        return null;
+    }
+
+    private void parseProxyHost(String ipAndPort) {
+        String[] items = ipAndPort.split(":");
+        if (items.length != 2) {
+            logger.warn("invalid ipAndPort {}", ipAndPort);
+            return;
+        }
+
+        proxyHost = items[0];
+        try {
+            proxyPort = Integer.parseInt(items[1]);
+        } catch (Exception e) {
+            logger.warn("exception at parse ipAndPort {}, {}", ipAndPort, e.getMessage());
+        }
+    }
+
+    // 创建okhttp客户端, 与浏览器使用同一个代理
+    // 流水线中的请求线程也会调用, 需要同步
+    private synchronized OkHttpClient httpClient() {
+        if (okHttpClient == null) {
+            OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                    .connectTimeout(30, TimeUnit.SECONDS)
+                    .readTimeout(30, TimeUnit.SECONDS)
+                    .connectionPool(new ConnectionPool(5, 1, TimeUnit.MINUTES))
+                    .addInterceptor(new UnzippingInterceptor());
+            if (proxyHost != null) {
+                logger.info("okhttp by proxy");
+                builder.proxy(new java.net.Proxy(java.net.Proxy.Type.HTTP, new InetSocketAddress(proxyHost, proxyPort)));
+            }
+            okHttpClient = builder.build();
+        }
+        return okHttpClient;
+    }
+
+    // 切换ip (通过okhttp访问代理的切换地址, 浏览器使用同一个代理, 不需要离开当前页面)
+    // 切换到的ip不可用时再切换, 最多3次
+    private void switchIp(String reason) {
+        logger.info("session {} useProxy={}", id, isProxyMode());
+        if (!isProxyMode())
+            return;
+
+        for (int i = 0; i < 3; i++) {
+            String[] result = ProxyPool.switchIp(httpClient());
+            if (result == null)
+                return;
+
+            // 先检查再记录, 不把这次切换算进最近的次数
+            boolean usable = ProxyPool.isUsable(result[0]);
+            String oldIp = lastProxyIp;
+            lastProxyIp = result[0];
+            lastSwitchTime = System.currentTimeMillis();
+            MongoUtils.insertSwitchIpRecord(lastProxyIp, result[1], oldIp, reason, APIScheduler.getProcessName());
+            if (usable)
+                return;
+            reason = "ip " + lastProxyIp + " not usable";
+        }
+    }
+
+    // 当前的出口ip, 没有切换过ip时为null
+    String getExitIp() {
+        return lastProxyIp;
+    }
+
+    // 接口请求的限流, 等待直到拿到许可
+    void acquireRate() {
+        rateLimiter.acquire();
+    }
+
+    // 记录一次接口请求的结果
+    //   正常时提高请求速率, 被限流 (429/502/503, 访问验证, remind key) 时降低
+    //   出口ip评分不计remind key, ip被淘汰时标记刷新 (刷新时切换ip)
+    void requestResult(LoadResult result, long latencyMillis) {
+        if (result.isSucceed())
+            rateLimiter.succeeded();
+        else if (result != LoadResult.FAILED)
+            rateLimiter.throttled();
+
+        if (result == LoadResult.REMIND_KEY)
+            return;
+        String ip = lastProxyIp;
+        if (ProxyPool.record(ip, result, latencyMillis) && APIScheduler.isSwitchIp())
+            markRefresh("proxy ip " + ip + " evicted");
+    }
+
+    // 接口返回系统繁忙 (没有数据), 只降低请求速率
+    void systemBusy() {
+        rateLimiter.throttled();
+    }
+
+    // 重新加载cookie页, 返回cookie串, 失败时返回null
+    private String joinCookies() {
+        // 先保留当前tab, 在定时刷新ip的时候有可能打开了多个tab, 需要回到主tab页去刷新, 然后再回到原来的tab页
+        String currentWindow = driver.getWindowHandle();
+        if (mainWindow == null)
+            mainWindow = currentWindow;
+
+        // 获取cookie (必须在列表页获取完整cookie, 在首页只能拿到有限的几条cookie)
+        logger.info("start load main page for cookie...");
+        APIScheduler.acquireRateLimit();
+        String url;
+        try {
+            if (!currentWindow.equals(mainWindow))
+                driver.switchTo().window(mainWindow);
+            url = driver.getCurrentUrl();
+            driver.get(APIScheduler.cookiePageUrl);
+        } catch (Exception e) {
+            logger.warn("exception at get cookie url. {}", e.getMessage());
+            return null;
+        }
+
+        logger.info("cookie info:");
+        try {
+            List<String> cookies = new ArrayList<>();
+            Set<Cookie> allCookies = driver.manage().getCookies();
+            for (Cookie loadedCookie : allCookies) {
+                logger.info("{} -> {}", loadedCookie.getName(), loadedCookie.getValue());
+                cookies.add(loadedCookie.getName() + "=" + loadedCookie.getValue());
+            }
+            String cookieStr = String.join("; ", cookies);
+            logger.info("cookie string: {}", cookieStr);
+            return cookieStr;
+        } catch (Exception e) {
+            logger.warn("exception. {}", e.getMessage());
+            return null;
+        } finally {
+            // 返回原来的tab页
+            driver.navigate().to(url);
+            if (!currentWindow.equals(mainWindow))
+                driver.switchTo().window(currentWindow);
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public WebDriver getDriver() {
+        return driver;
+    }
+
+    public JavascriptExecutor getJsExecutor() {
+        return jsExecutor;
+    }
+
+    LocalDecrypter getLocalDecrypter() {
+        return localDecrypter;
+    }
+
+    // 本地解密出错时停用, 在下次refresh时重新加载
+    void disableLocalDecrypter() {
+        logger.warn("session {} disable local decrypter.", id);
+        localDecrypter = null;
+    }
+
+    // 不使用本地解密也不切换ip时, 在第一次发API请求时创建
+    OkHttpClient getOkHttpClient() {
+        return httpClient();
+    }
+
+    // 当前的一组参数, 还没有初始化完成时为null
+    SessionTokens getTokens() {
+        return tokens;
+    }
+
+    String getCookie() {
+        SessionTokens current = tokens;
+        return current != null ? current.getCookie() : null;
+    }
+
+    boolean isProxyMode() {
+        return proxyIpAndPort != null;
+    }
+
+    void stop() {
+        if (driver != null) {
+            NetworkCapture.release(driver);
+            driver.quit();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.domoes.APIs;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Created by liufei on 2019/7/30.
+ * 按服务器反馈调整的限流器 (AIMD)
+ *   请求正常时每秒大约增加additiveStep次/秒, 被限流 (429, 访问验证, 系统繁忙, remind key) 时速率减半
+ *   同时返回的多个限流结果只减一次, 两次减速至少间隔cooldownMillis
+ *   acquire会一直等到拿到许可
+ */
+class AdaptiveRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveRateLimiter.class);
+
+    private static final double additiveStep = 0.2;
+    private static final double decreaseFactor = 0.5;
+    private static final long cooldownMillis = 2000;
+
+    private final String name;
+    private final double minRate;
+    private final double maxRate;
+    private final RateLimiter limiter;
+
+    private double rate;
+    private long lastDecreaseTime;
+
+    AdaptiveRateLimiter(String name, double initialRate, double minRate, double maxRate) {
+        this.name = name;
+        this.minRate = minRate;
+        this.maxRate = Math.max(minRate, maxRate);
+        this.rate = Math.min(this.maxRate, Math.max(minRate, initialRate));
+        this.limiter = RateLimiter.create(rate);
+    }
+
+    // 等待许可
+    void acquire() {
+        limiter.acquire();
+    }
+
+    // 请求正常, 加性增加 (每次增加additiveStep/rate, 一秒内的请求合计增加约additiveStep)
+    synchronized void succeeded() {
+        if (rate >= maxRate)
+            return;
+        setRate(Math.min(maxRate, rate + additiveStep / rate));
+    }
+
+    // 被限流, 乘性减少
+    synchronized void throttled() {
+        long now = System.currentTimeMillis();
+        if (now - lastDecreaseTime < cooldownMillis)
+            return;
+        lastDecreaseTime = now;
+
+        double old = rate;
+        setRate(Math.max(minRate, rate * decreaseFactor));
+        logger.info("{} throttled, rate {} -> {}", name, String.format("%.2f", old), String.format("%.2f", rate));
+    }
+
+    synchronized double getRate() {
+        return rate;
+    }
+
+    private void setRate(double rate) {
+        this.rate = rate;
+        limiter.setRate(rate);
+    }
+}
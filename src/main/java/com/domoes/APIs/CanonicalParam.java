@@ -0,0 +1,117 @@
+package com.domoes.APIs;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Created by liufei on 2019/7/29.
+ * 列表查询条件的规范形式
+ *   "关键字:值"按关键字排序后用","连接, 只在第一个":"处拆分关键字和值
+ *   规范形式的64位指纹用于任务去重和frontier表的key, 同样的查询条件生成同样的任务消息, 发送到同一个partition
+ */
+public class CanonicalParam {
+    private static final Logger logger = LoggerFactory.getLogger(CanonicalParam.class);
+
+    // 拆分为按关键字排序的参数对, 忽略格式不对的项
+    public static Map<String, String> parse(String param) {
+        Map<String, String> result = new TreeMap<>();
+        for (String item : param.split(",")) {
+            int index = item.indexOf(':');
+            if (index <= 0 || index == item.length() - 1) {
+                if (!item.trim().isEmpty())
+                    logger.warn("invalid param {}", item);
+                continue;
+            }
+            result.put(item.substring(0, index).trim(), item.substring(index + 1).trim());
+        }
+        return result;
+    }
+
+    public static String of(Map<String, String> params) {
+        return ListParams.joinParamMaps(params);
+    }
+
+    // 解码后的查询条件的规范形式
+    public static String of(String param) {
+        return of(parse(param));
+    }
+
+    // 规范化是否不丢失信息: 每一项都是合法的"关键字:值", 没有重复的关键字, 也没有joinParamMaps丢掉的项
+    public static boolean isLossless(String param) {
+        int items = 0;
+        for (String item : param.split(",")) {
+            if (!item.trim().isEmpty())
+                items++;
+        }
+        Map<String, String> params = parse(param);
+        return params.size() == items && parse(of(params)).equals(params);
+    }
+
+    // 去重和统计用的key: 能无损规范化时为规范形式, 否则保持原样
+    // 会丢失信息的查询条件不能与更宽的查询共用同一个key
+    public static String key(String param) {
+        return isLossless(param) ? of(param) : param;
+    }
+
+    // url编码的查询条件, 解码后规范化再编码, 规范化会丢失信息时保持原样
+    public static String ofEncoded(String encodedParam) {
+        String param = APIScheduler.decodeValue(encodedParam);
+        if (param == null || !isLossless(param))
+            return encodedParam;
+        return APIScheduler.encodeValue(of(param));
+    }
+
+    // url编码的查询条件解码后的key, 解码失败时返回null
+    public static String ofDecoded(String encodedParam) {
+        String param = encodedParam != null ? APIScheduler.decodeValue(encodedParam) : null;
+        return param != null ? key(param) : null;
+    }
+
+    // 查询条件的64位指纹
+    public static long fingerprint(String param) {
+        return Hashing.murmur3_128().hashString(key(param), StandardCharsets.UTF_8).asLong();
+    }
+
+    public static String fingerprintHex(String param) {
+        return String.format("%016x", fingerprint(param));
+    }
+
+    // API LIST任务的指纹: 查询条件指纹加页码, 消息格式不对或者没有合法的查询条件时返回null
+    // message为json串 类似{"Param":"xxx", "Index":"1"}, Param是url编码的
+    public static String apiListKey(String message) {
+        JSONObject json = parseApiList(message);
+        if (json == null)
+            return null;
+        String param = APIScheduler.decodeValue(json.getString("Param"));
+        if (of(param).isEmpty()) {
+            logger.warn("no valid param in api list message {}", message);
+            return null;
+        }
+        return fingerprintHex(param) + "#" + json.getString("Index").trim();
+    }
+
+    // API LIST任务中解码后的查询条件, 消息格式不对时返回null
+    public static String apiListParam(String message) {
+        JSONObject json = parseApiList(message);
+        return json != null ? APIScheduler.decodeValue(json.getString("Param")) : null;
+    }
+
+    private static JSONObject parseApiList(String message) {
+        try {
+            JSONObject json = JSON.parseObject(message);
+            if (APIScheduler.decodeValue(json.getString("Param")) == null || json.getString("Index") == null)
+                return null;
+            return json;
+        } catch (Exception e) {
+            logger.warn("invalid api list message {}. {}", message, e.getMessage());
+            return null;
+        }
+    }
+}
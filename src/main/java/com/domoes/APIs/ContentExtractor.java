@@ -0,0 +1,104 @@
+package com.domoes.APIs;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+import java.io.IOException;
+
+/**
+ * Created by liufei on 2019/7/23.
+ * CreateContentJS返回数据的解析
+ *   顺序扫描一遍数据, 取出caseinfo的json串和文书html内容, 不需要先把整个返回数据转成字符串
+ *   文书内容中的\" 在扫描时还原为 " (其它转义保持原样)
+ *
+ * 数据格式:
+ *   ...var caseinfo=JSON.stringify({...});...var jsonHtmlData = "{\"Title\":\"...\",\"Html\":\"...\"}";...
+ */
+class ContentExtractor {
+    private static final ByteString caseInfoBegin = ByteString.encodeUtf8("stringify({");
+    private static final ByteString caseInfoEnd = ByteString.encodeUtf8("});");
+    private static final ByteString contentBegin = ByteString.encodeUtf8("\\\"Html\\\":\\\"");
+    private static final ByteString contentEnd = ByteString.encodeUtf8("\\\"}\";");
+    private static final ByteString escapedQuote = ByteString.encodeUtf8("\\\"");
+    private static final byte backslash = '\\';
+
+    private String caseInfo;
+    private String content;
+    private String error;
+
+    /**
+     * 从数据流中解析, source中的数据会被消耗掉
+     * @return false表示数据格式不正确, 通过getError获取原因
+     */
+    boolean extract(BufferedSource source) throws IOException {
+        caseInfo = null;
+        content = null;
+        error = null;
+
+        // 第一段: caseinfo (去掉前面的stringify(和后面的);, 只留{} json数据)
+        long begin = source.indexOf(caseInfoBegin);
+        if (begin < 0) {
+            error = "can't find stringify({";
+            return false;
+        }
+        source.skip(begin + caseInfoBegin.size() - 1);
+        long end = source.indexOf(caseInfoEnd);
+        if (end < 0) {
+            error = "can't find caseinfo end.";
+            return false;
+        }
+        caseInfo = source.readUtf8(end + 1);
+
+        // 第二段: content
+        begin = source.indexOf(contentBegin);
+        if (begin < 0) {
+            error = "can't find jsonHtmlData";
+            return false;
+        }
+        source.skip(begin + contentBegin.size());
+
+        Buffer buffer = new Buffer();
+        while (true) {
+            long pos = source.indexOf(backslash);
+            if (pos < 0) {
+                error = "can't find jsonHtmlData end.";
+                return false;
+            }
+            // 反斜杠之前的数据直接移到结果中 (okio按segment移动, 不复制)
+            source.readFully(buffer, pos);
+
+            if (source.rangeEquals(0, contentEnd)) {
+                break;
+            } else if (source.rangeEquals(0, escapedQuote)) {
+                buffer.writeByte('"');
+                source.skip(2);
+            } else if (source.request(2)) {
+                // 其它转义原样保留, 两个字符一起处理, 避免把\\"中的\"当成转义的引号
+                source.readFully(buffer, 2);
+            } else {
+                error = "can't find jsonHtmlData end.";
+                return false;
+            }
+        }
+        content = buffer.readUtf8();
+        return true;
+    }
+
+    // 从字符串解析 (浏览器方式获取到的数据)
+    boolean extract(String data) throws IOException {
+        return extract(new Buffer().writeUtf8(data));
+    }
+
+    String getCaseInfo() {
+        return caseInfo;
+    }
+
+    String getContent() {
+        return content;
+    }
+
+    String getError() {
+        return error;
+    }
+}
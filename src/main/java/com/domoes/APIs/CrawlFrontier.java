@@ -0,0 +1,121 @@
+package com.domoes.APIs;
+
+import com.domoes.mongodb.MongoUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by liufei on 2019/7/29.
+ * 已抓取的列表查询记录 (frontier表)
+ *   以查询条件的指纹加页码为key, 记录文书数量和最后抓取时间
+ *   生成翻页和拆分任务前先检查, 最近抓取过的查询不再生成任务
+ *   最近几年的文书还在持续更新, 过期时间比更早的年份短
+ */
+public class CrawlFrontier {
+    private static final Logger logger = LoggerFactory.getLogger(CrawlFrontier.class);
+
+    private static int recentYears = 2;     // 最近几年算作最近 (包含今年)
+    private static int recentDays = 1;      // 最近年份的查询多少天后重新抓取
+    private static int staleDays = 30;      // 更早年份的查询多少天后重新抓取
+
+    public static void init(int recentYears, int recentDays, int staleDays) {
+        CrawlFrontier.recentYears = recentYears;
+        CrawlFrontier.recentDays = recentDays;
+        CrawlFrontier.staleDays = staleDays;
+        logger.info("crawl frontier policy: recent years {}, recent days {}, stale days {}", recentYears, recentDays, staleDays);
+    }
+
+    // 记录查询条件的一页已抓取
+    public static void crawled(String param, int page, int count) {
+        MongoUtils.saveFrontier(key(param, page), count);
+    }
+
+    /**
+     * 过滤掉最近抓取过的查询
+     * @param params 解码后的查询条件
+     * @param page 页码
+     * @return 需要抓取的查询条件, 查询frontier表失败时全部返回
+     */
+    public static List<String> needCrawl(List<String> params, int page) {
+        Map<String, String> keys = new LinkedHashMap<>();
+        for (String param : params)
+            keys.put(key(param, page), param);
+
+        Set<String> recent = crawledRecently(keys);
+        List<String> result = new ArrayList<>(params.size());
+        keys.forEach((key, param) -> {
+            if (!recent.contains(key))
+                result.add(param);
+        });
+        return result;
+    }
+
+    // 过滤掉查询条件最近抓取过的页
+    public static List<Integer> needCrawlPages(String param, List<Integer> pages) {
+        Map<String, String> keys = new LinkedHashMap<>();
+        for (int page : pages)
+            keys.put(key(param, page), param);
+
+        Set<String> recent = crawledRecently(keys);
+        List<Integer> result = new ArrayList<>(pages.size());
+        for (int page : pages) {
+            if (!recent.contains(key(param, page)))
+                result.add(page);
+        }
+        return result;
+    }
+
+    // key -> 查询条件, 返回还没有过期的key
+    private static Set<String> crawledRecently(Map<String, String> keys) {
+        if (keys.isEmpty())
+            return Collections.emptySet();
+
+        Map<String, Date> crawled = MongoUtils.getFrontierCrawled(keys.keySet());
+        if (crawled == null)
+            return Collections.emptySet();
+
+        Set<String> result = new HashSet<>();
+        long now = System.currentTimeMillis();
+        int currentYear = LocalDate.now().getYear();
+        crawled.forEach((key, time) -> {
+            String param = keys.get(key);
+            if (param != null && now - time.getTime() < TimeUnit.DAYS.toMillis(expireDays(param, currentYear)))
+                result.add(key);
+        });
+        if (!result.isEmpty())
+            logger.info("{} of {} queries crawled recently, skipped", result.size(), keys.size());
+        return result;
+    }
+
+    // 查询条件的任务完成状态的有效期, 与重新抓取的间隔一致
+    // 过期后frontier重新生成的同一任务 (同样的指纹和页码) 不会再被当作已完成跳过
+    public static Date finishedUntil(String param, long now) {
+        int currentYear = LocalDate.now().getYear();
+        return new Date(now + TimeUnit.DAYS.toMillis(expireDays(param, currentYear)));
+    }
+
+    // 查询条件的过期天数: 按裁判年份或裁判日期的结束年份判断, 都没有时包含了最近的文书
+    static int expireDays(String param, int currentYear) {
+        Map<String, String> params = ListParams.splitParams(param);
+        int year = currentYear;
+        try {
+            if (params.containsKey(ListParams.judgeDateKey)) {
+                LocalDate[] range = ListParams.parseDateRange(params.get(ListParams.judgeDateKey));
+                if (range != null)
+                    year = range[1].getYear();
+            } else if (params.containsKey("裁判年份"))
+                year = Integer.parseInt(params.get("裁判年份"));
+        } catch (Exception e) {
+            logger.warn("invalid judge year in {}", param);
+        }
+        return year > currentYear - recentYears ? recentDays : staleDays;
+    }
+
+    static String key(String param, int page) {
+        return CanonicalParam.fingerprintHex(param) + "#" + page;
+    }
+}
@@ -4,6 +4,11 @@ import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 import com.domoes.mongodb.MongoUtils;
 import com.domoes.kafka.TaskMQ;
+import com.domoes.pages.PageReady;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
 import org.openqa.selenium.WebDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,38 +25,130 @@ import org.slf4j.LoggerFactory;
  */
 public class DocContentCrawler {
     private static Logger logger = LoggerFactory.getLogger(DocContentCrawler.class);
+    private static final String contentUrl = "http://wenshu.court.gov.cn/CreateContentJS/CreateContentJS.aspx?DocID=";
 
     /**
      * 加载指定的文书内容
      * @param docId 文书id
-     * @return true表示该任务处理完成, false表示未处理, 调用方会将该任务重新放回消息队列
+     * @return SUCCEED表示该任务处理完成, 其它表示未处理及失败原因, 调用方会将该任务重试或改为其它任务
      */
-    public static boolean load(TaskMQ mq, String docId) {
+    public static LoadResult load(TaskMQ mq, String docId) {
         // 混进了一些无效的docid
         if (!APIScheduler.isValidDocId(docId)) {
             logger.warn("invalid docId {}", docId);
-            return true;
+            return LoadResult.SUCCEED;
         }
 
         // 文书内容已经获取到
         if (MongoUtils.wenshuGotFinishedByDocId(docId)) {
             logger.info("doc already got. {}", docId);
-            return true;
+            return LoadResult.SUCCEED;
         }
 
-        WebDriver driver = APIScheduler.getDriver();
-        String targetUrl = "http://wenshu.court.gov.cn/CreateContentJS/CreateContentJS.aspx?DocID=" + docId;
+        // 先直接通过http请求获取, 只有需要验证或者返回异常页面时才使用浏览器
+        LoadResult result = loadByHttp(APIScheduler.nextSession(), docId);
+        if (result != null)
+            return result;
+
+        APISession session = APIScheduler.leaseSession();
+        if (session == null)
+            return LoadResult.FAILED;
+
+        try {
+            return load(session, docId);
+        } finally {
+            // 重定向到列表页
+            try {
+                session.getDriver().navigate().to(APIScheduler.cookiePageUrl);
+            } catch (Exception e) {
+                logger.warn("exception at navigate to cookie page. {}", e.getMessage());
+            }
+            APIScheduler.releaseSession(session);
+        }
+    }
+
+    // 使用会话的cookie直接请求文书内容 (不占用会话)
+    // 返回null表示需要使用浏览器重新加载
+    private static LoadResult loadByHttp(APISession session, String docId) {
+        String cookie = session.getCookie();
+        OkHttpClient client = session.getOkHttpClient();
+        if (cookie == null || client == null)
+            return null;
+
+        Request request = new Request.Builder()
+                .url(contentUrl + docId)
+                .header("Cookie", cookie)
+                .addHeader("X-Requested-With", "XMLHttpRequest")
+                .addHeader("Accept-Encoding", "gzip, deflate")
+                .addHeader("Accept-Language", "zh-CN,zh;q=0.9")
+                .addHeader("Host", "wenshu.court.gov.cn")
+                .addHeader("Referer", "http://wenshu.court.gov.cn/content/content?DocID=" + docId)
+                .addHeader("User-Agent", "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/75.0.3770.100 Safari/537.36")
+                .get()
+                .build();
+
+        session.acquireRate();
+        String data;
+        long latency;
+        try (Response response = client.newCall(request).execute()) {
+            latency = response.receivedResponseAtMillis() - response.sentRequestAtMillis();
+            if (!response.isSuccessful() || response.body() == null) {
+                // 429/502/503 访问频率太快, 等一下重试就好了
+                logger.warn("get doc content failed. {}", response);
+                session.requestResult(LoadResult.ofHttpCode(response.code()), latency);
+                return LoadResult.ofHttpCode(response.code());
+            }
+
+            // 直接从数据流中解析
+            BufferedSource source = response.body().source();
+            ContentExtractor extractor = new ContentExtractor();
+            if (extractor.extract(source)) {
+                session.requestResult(LoadResult.SUCCEED, latency);
+                return saveContent(docId, extractor);
+            }
+            if (extractor.getCaseInfo() != null) {
+                logger.warn("invalid doc content. {}", extractor.getError());
+                session.requestResult(LoadResult.FAILED, latency);
+                return LoadResult.FAILED;
+            }
+
+            // 没有找到caseinfo, 整个返回数据都在缓冲区中, 取出来检查是什么页面
+            data = source.readUtf8();
+        } catch (Exception e) {
+            logger.warn("exception at get doc content. {}", e.getMessage());
+            return LoadResult.FAILED;
+        }
+
+        // 访问太频繁, 等一会儿
+        if (data.contains("https://www.abuyun.com/")) {
+            logger.info("abuyun visit too frequent, wait a minute");
+            session.requestResult(LoadResult.RATE_LIMITED, latency);
+            return LoadResult.RATE_LIMITED;
+        }
+
+        // 验证码或者其它错误页面也要计入会话和代理的统计
+        logger.info("invalid http result, try browser. {}", data);
+        session.requestResult(pageErrorMessage("", data) != null ? LoadResult.VERIFY : LoadResult.FAILED, latency);
+        return null;
+    }
+
+    private static LoadResult load(APISession session, String docId) {
+        WebDriver driver = session.getDriver();
+        APIScheduler.acquireRateLimit();
+        String targetUrl = contentUrl + docId;
         driver.navigate().to(targetUrl);
 
         int loopCount = 0;
         int maxLoopCount = 60;      // 最多尝试次数
         long waitingTime = 500;     // 等待时间 ms
+        LoadResult result = LoadResult.FAILED;
 
         do {
             String data = driver.getPageSource();
             if (data.isEmpty()) {
+                // 页面有内容时立即返回, 不再固定等待
                 logger.info("waiting for response..., docId={}", docId);
-                try { Thread.sleep(waitingTime); } catch (Exception e) { logger.info("exception at sleep. {}", e.getMessage()); }
+                PageReady.waitFor(driver, "document.body && document.body.innerHTML.length > 0", waitingTime);
                 continue;
             }
 
@@ -61,109 +158,100 @@ public class DocContentCrawler {
 
                 if (data.contains("window.location.href='/Html_Pages/VisitRemind20180914.html")) {
                     // 如果没有走代理, 并且是显示要输入验证码, 等待输入成功后重新打开该文书页
-                    if (!APIScheduler.isProxyMode() && !APIScheduler.isHeadless()) {
+                    if (!session.isProxyMode() && !APIScheduler.isHeadless()) {
                         driver.navigate().to("http://wenshu.court.gov.cn/Html_Pages/VisitRemind20180914.html?DocID=" + docId);
 
-                        int i = 0;
-                        for (; i < 60; i++) {
-                            String url = driver.getCurrentUrl();
-                            if (!url.startsWith("http://wenshu.court.gov.cn/Html_Pages/VisitRemind20180914.html?DocID="))
-                                break;
-                            try {
-                                Thread.sleep(1000);
-                            } catch (Exception e) {
-                                logger.warn("exception. {}", e.getMessage());
-                            }
-                        }
-
-                        if (i == 60)
+                        // 输入验证码成功后页面会跳转, 最多等60秒
+                        if (!PageReady.waitForUrlChange(driver, driver.getCurrentUrl(), 60 * 1000)) {
+                            result = LoadResult.VERIFY;
                             break;
+                        }
 
                         driver.navigate().to(targetUrl);
                         continue;
                     } else {
                         logger.info("need visit verify page.");
-                        return false;
+                        return LoadResult.VERIFY;
                     }
                 }
 
                 // 访问太频繁, 等一会儿
                 if (data.contains("https://www.abuyun.com/")) {
                     logger.info("abuyun visit too frequent, wait a minute");
+                    result = LoadResult.RATE_LIMITED;
                     break;
                 }
 
                 String errorMsg = pageErrorMessage(driver.getTitle(), data);
-                if (errorMsg != null)
-                    APIScheduler.refresh(errorMsg);
+                if (errorMsg != null) {
+                    session.refresh(errorMsg);
+                    result = LoadResult.VERIFY;
+                }
                 break;
             }
 
-            data = data.replace("<html><head></head><body>", "");
-            data = data.replace("</body></html>", "");
-
             logger.debug("data is {}", data);
-
-            // 找第一段: caseinfo
-            int begin = data.indexOf("stringify({");
-            if (begin < 0) {
-                logger.warn("can't find stringify({");
-                break;
-            }
-            logger.info("find caseinfo start index {}", begin);
-            int end = data.indexOf("});", begin);
-            if (end < 0) {
-                logger.warn("can't find caseinfo end.");
-                break;
-            }
-            logger.info("find caseinfo end index {}", end);
-            String caseinfoScript = data.substring(begin + 10, end + 1);        // 去掉前面的stringify(和后面的);, 只留{} json数据
-            logger.debug("caseinfo script: {}", caseinfoScript);
-
-            JSONObject caseInfo;
-            try {
-                caseInfo = JSON.parseObject(caseinfoScript);
-            } catch (Exception e) {
-                logger.warn("invalid caseinfo json data. {}", e.getMessage());
-                break;
-            }
-            String caseTypeStr = caseInfo.getString("案件类型");
-            int caseType = 0;
+            ContentExtractor extractor = new ContentExtractor();
             try {
-                caseType = Integer.parseInt(caseTypeStr);
+                if (extractor.extract(data))
+                    return saveContent(docId, extractor);
             } catch (Exception e) {
-                logger.warn("get case type failed. {}", e.getMessage());
-            }
-            String courtIDStr = caseInfo.getString("法院ID");
-            int courtID = 0;
-            try {
-                courtID = Integer.parseInt(courtIDStr);
-            } catch (Exception e) {
-                logger.warn("get court id failed. {}", e.getMessage());
-            }
-
-            // 找第二段 content
-            begin = data.indexOf("\\\"Html\\\":\\\"");
-            if (begin < 0) {
-                logger.warn("can't find jsonHtmlData");
+                logger.warn("exception at extract doc content. {}", e.getMessage());
                 break;
             }
-            logger.info("find jsonHtmlData start index {}", begin);
-            end = data.indexOf("\\\"}\";", begin);
-            if (end < 0) {
-                logger.warn("can't find jsonHtmlData end.");
-                break;
-            }
-            logger.info("find jsonHtmlData end index {}", end);
-            String content = data.substring(begin + 11, end);        // 去掉前面的\"Html\":\"
-            logger.debug("jsonHtmlData script: {}", content);
-
-            MongoUtils.updateWenshuContent(docId, content, caseinfoScript, caseType, courtID);
-            return true;
+            logger.warn("invalid doc content. {}", extractor.getError());
+            break;
         } while (++loopCount < maxLoopCount);
 
         logger.warn("get doc content failed, docId={}", docId);
-        return false;
+        return result;
+    }
+
+    // 保存从浏览器中抓到的CreateContentJS返回数据 (网页方式抓取时使用)
+    public static LoadResult saveCaptured(String docId, String data) {
+        ContentExtractor extractor = new ContentExtractor();
+        try {
+            if (extractor.extract(data))
+                return saveContent(docId, extractor);
+        } catch (Exception e) {
+            logger.warn("exception at extract captured doc content. {}", e.getMessage());
+            return LoadResult.FAILED;
+        }
+        logger.warn("invalid captured doc content. {} {}", docId, extractor.getError());
+        return LoadResult.FAILED;
+    }
+
+    // 保存解析出来的caseinfo和文书内容
+    private static LoadResult saveContent(String docId, ContentExtractor extractor) {
+        String caseinfoScript = extractor.getCaseInfo();
+        String content = extractor.getContent();
+        logger.debug("caseinfo script: {}", caseinfoScript);
+        logger.debug("jsonHtmlData script: {}", content);
+
+        JSONObject caseInfo;
+        try {
+            caseInfo = JSON.parseObject(caseinfoScript);
+        } catch (Exception e) {
+            logger.warn("invalid caseinfo json data. {}", e.getMessage());
+            return LoadResult.FAILED;
+        }
+        String caseTypeStr = caseInfo.getString("案件类型");
+        int caseType = 0;
+        try {
+            caseType = Integer.parseInt(caseTypeStr);
+        } catch (Exception e) {
+            logger.warn("get case type failed. {}", e.getMessage());
+        }
+        String courtIDStr = caseInfo.getString("法院ID");
+        int courtID = 0;
+        try {
+            courtID = Integer.parseInt(courtIDStr);
+        } catch (Exception e) {
+            logger.warn("get court id failed. {}", e.getMessage());
+        }
+
+        MongoUtils.updateWenshuContent(docId, content, caseinfoScript, caseType, courtID);
+        return LoadResult.SUCCEED;
     }
 
     // 检查网页内容里是否有要求刷新网页的提示
@@ -10,7 +10,10 @@ import org.openqa.selenium.JavascriptExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -26,28 +29,91 @@ import java.util.Map;
  */
 public class ListContentCrawler {
     private static Logger logger = LoggerFactory.getLogger(ListContentCrawler.class);
-    private static int totalListCount = 0;
+
+    // 批量解密docId的错误码
+    static final int DECRYPT_OK = 0;
+    static final int DECRYPT_MALFORMED = 1;         // Malformed UTF-8 data, 这类数据解不出来
+    static final int DECRYPT_SCRIPT_ERROR = 2;      // 其它js错误
+
+    // 批量解密docId的脚本, 输入为数组ids, 返回每个条目的 {code, id, error}
+    // 浏览器和本地引擎共用
+    static final String decryptDocIdsScript = "var result = [];" +
+            "for (var i = 0; i < ids.length; i++) {" +
+            " try { result.push({code: " + DECRYPT_OK + ", id: com.str.Decrypt(unzip(ids[i]))}); }" +
+            " catch (e) { var msg = String(e); result.push({code: msg.indexOf('Malformed UTF-8 data') >= 0 ? " + DECRYPT_MALFORMED + " : " + DECRYPT_SCRIPT_ERROR + ", error: msg}); }" +
+            "} return result;";
 
     /**
      * 通过API方式加载指定的列表页内容
      * @param message json结构体, 包含字段Param, Index
-     * @return true表示该任务处理完成, false表示未处理, 调用方会将该任务重新放回消息队列
+     * @return SUCCEED表示该任务处理完成, 其它表示未处理及失败原因, 调用方会将该任务延时重试
      */
-    public static boolean load(TaskMQ mq, String message) {
-        String param, index;
+    public static LoadResult load(TaskMQ mq, String message) {
+        String[] paramAndIndex = parseMessage(message);
+        if (paramAndIndex == null)
+            return LoadResult.SUCCEED;
+
+        APISession session = APIScheduler.leaseSession();
+        if (session == null)
+            return LoadResult.FAILED;
+
+        try {
+            return load(session, mq, paramAndIndex[0], paramAndIndex[1]);
+        } finally {
+            APIScheduler.releaseSession(session);
+        }
+    }
+
+    // 解析任务消息, 返回 {Param, Index}, 消息格式错误时返回null
+    static String[] parseMessage(String message) {
         try {
             JSONObject json = JSON.parseObject(message);
-            param = json.getString("Param");
-            index = json.getString("Index");
+            String param = json.getString("Param");
+            String index = json.getString("Index");
             logger.debug("Param is {} Index is {}", param, index);
+            return new String[] {param, index};
         } catch (Exception e) {
             logger.error("parse json message failed. {}", e.getMessage());
-            return true;
+            return null;
+        }
+    }
+
+    private static LoadResult load(APISession session, TaskMQ mq, String param, String index) {
+        Request request = buildRequest(session, param, index);
+        if (request == null) {
+            session.refresh("APISession is not initialized.");
+            return LoadResult.FAILED;
+        }
+
+        session.acquireRate();
+        try (Response response = session.getOkHttpClient().newCall(request).execute()) {
+            String data = readResponse(session, response, true);
+            return handleData(session, mq, data, param, index) ? LoadResult.SUCCEED : LoadResult.FAILED;
+        } catch (LoadFailure e) {
+            return e.getResult();
+        } catch (Exception e) {
+            logger.warn("exception at call url. {}", e.getMessage());
+            return LoadResult.FAILED;
         }
+    }
 
-        OkHttpClient client = APIScheduler.getOkHttpClient();
-        JavascriptExecutor jsExecutor = APIScheduler.getJsExecutor();
+    // 列表接口返回了错误, 带有失败原因
+    static class LoadFailure extends IOException {
+        private final LoadResult result;
+
+        LoadFailure(LoadResult result, String message) {
+            super(message);
+            this.result = result;
+        }
+
+        LoadResult getResult() {
+            return result;
+        }
+    }
 
+    // 使用会话中的cookie和guid/vl5x构造列表请求
+    // 会话还没有初始化完成时返回null
+    static Request buildRequest(APISession session, String param, String index) {
         String order = "";
         try {
             order = APIScheduler.encodeValue("法院层级");
@@ -58,13 +124,14 @@ public class ListContentCrawler {
             logger.warn("exception. {}", e.getMessage());
         }
 
-        String guid = APIScheduler.getGUID();
-        String vl5x = APIScheduler.getVl5x();
-        if (guid == null || vl5x == null) {
-            logger.warn("APIScheduler is not initialized. {} {}", guid, vl5x);
-            APIScheduler.refresh("APIScheduler is not initialized.");
-            return false;
+        // 一次取出整组参数, 后台刷新时不会混用新旧参数
+        SessionTokens tokens = session.getTokens();
+        if (tokens == null) {
+            logger.warn("APISession {} is not initialized.", session.getId());
+            return null;
         }
+        String guid = tokens.getGuid();
+        String vl5x = tokens.getVl5x();
 
         RequestBody formBody = new FormBody.Builder(Charset.forName("UTF-8"))
                 .addEncoded("Param", param)
@@ -81,7 +148,7 @@ public class ListContentCrawler {
         String targetUrl = "http://wenshu.court.gov.cn/List/ListContent";
         Request request = new Request.Builder()
                 .url(targetUrl)
-                .header("Cookie", APIScheduler.getCookie())
+                .header("Cookie", tokens.getCookie())
                 .addHeader("X-Requested-With", "XMLHttpRequest")
                 .addHeader("Accept-Encoding", "gzip, deflate")
                 .addHeader("Accept-Language", "zh-CN,zh;q=0.9")
@@ -90,53 +157,95 @@ public class ListContentCrawler {
                 .addHeader("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8")
                 .addHeader("User-Agent", "Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/75.0.3770.100 Safari/537.36")
                 .post(formBody)
+                .tag(SessionTokens.class, tokens)
                 .build();
         logger.debug("request is {}", request.toString());
+        return request;
+    }
 
-        totalListCount = 0;
-        try (Response response = client.newCall(request).execute()) {
-            logger.debug("response code {}", response.code());
-            if (!response.isSuccessful() || response.body() == null) {
-                logger.error("post failed. {}", response);
-                // code=429, message=Too Many Requests, url=http://wenshu.court.gov.cn/waf_verify.htm
-                // code=503, message=Service Unavailable
-                // code=502, bad gateway
-                // 不需要刷新网页, 访问频率太快, 等一下就好了
-                return false;
-            }
+    // 读取列表接口的返回数据, 请求失败时抛出LoadFailure
+    // 参数leased表示当前是否持有该会话, 没有持有会话时不能直接刷新, 只标记为在下次借用时刷新
+    static String readResponse(APISession session, Response response, boolean leased) throws IOException {
+        logger.debug("response code {}", response.code());
+        long latency = response.receivedResponseAtMillis() - response.sentRequestAtMillis();
+        if (!response.isSuccessful() || response.body() == null) {
+            logger.error("post failed. {}", response);
+            // code=429, message=Too Many Requests, url=http://wenshu.court.gov.cn/waf_verify.htm
+            // code=503, message=Service Unavailable
+            // code=502, bad gateway
+            // 不需要刷新网页, 访问频率太快, 等一下就好了
+            session.requestResult(LoadResult.ofHttpCode(response.code()), latency);
+            throw new LoadFailure(LoadResult.ofHttpCode(response.code()), "post failed, code " + response.code());
+        }
 
-            String data = response.body().string();
-            if (data.startsWith("<html>") || data.startsWith("<!DOCTYPE html>")) {
-                logger.warn("invalid result. {}, headers {}", data, response.headers().toString());
-                String errorMsg = pageErrorMessage("", data);
-                if (errorMsg != null)
-                    APIScheduler.refresh(errorMsg);
-                return false;
+        String errorMsg = null;
+        LoadResult failure = LoadResult.VERIFY;
+        String data = response.body().string();
+        if (data.startsWith("<html>") || data.startsWith("<!DOCTYPE html>")) {
+            logger.warn("invalid result. {}, headers {}", data, response.headers().toString());
+            errorMsg = pageErrorMessage("", data);
+            if (errorMsg == null) {
+                session.requestResult(LoadResult.FAILED, latency);
+                throw new LoadFailure(LoadResult.FAILED, "invalid result");
             }
+        }
 
-            // 需要重新计算本地key
-            if (data.equalsIgnoreCase("\"remind\"") || data.equalsIgnoreCase("\"remind key\"")) {
-                logger.warn("invalid key, data is {}", data);
-                APIScheduler.refresh("list page remind key, page need refresh");
-                return false;
-            }
+        // 需要重新计算本地key
+        if (data.equalsIgnoreCase("\"remind\"") || data.equalsIgnoreCase("\"remind key\"")) {
+            logger.warn("invalid key, data is {}", data);
+            errorMsg = "list page remind key, page need refresh";
+            failure = LoadResult.REMIND_KEY;
+        }
 
-            logger.debug("data is {}", data);
-            if (!decryptData(jsExecutor, mq, data, param, index, true, false)) {
-                MongoUtils.insertRawListData(data, APIScheduler.decodeValue(param), index);
-            }
-        } catch (Exception e) {
-            logger.warn("exception at call url. {}", e.getMessage());
-            return false;
+        // 记录请求所用参数的结果, 失败率过高时由TokenManager提前刷新
+        SessionTokens used = response.request().tag(SessionTokens.class);
+        if (used != null)
+            used.used(errorMsg == null);
+        session.requestResult(errorMsg == null ? LoadResult.SUCCEED : failure, latency);
+
+        if (errorMsg != null) {
+            if (leased)
+                session.refresh(errorMsg);
+            else
+                session.markRefresh(errorMsg);
+            throw new LoadFailure(failure, errorMsg);
         }
 
+        logger.debug("data is {}", data);
+        return data;
+    }
+
+    // 解密列表数据, 并生成翻页和拆分的任务
+    // 会话必须已被当前任务借用 (解密需要使用浏览器或会话的本地解密引擎)
+    // 网页方式抓取时也用来处理从浏览器中抓到的列表数据
+    public static boolean handleData(APISession session, TaskMQ mq, String data, String param, String index) {
+        DecryptResult result = decryptList(session, mq, data, param, index, true, false);
+        // 解密失败的数据放到原始数据里, 由Decrypter再处理, 任务本身不需要重试
+        if (!result.succeed)
+            MongoUtils.insertRawListData(data, APIScheduler.decodeValue(param), index);
+        // 没有解析出文书数量时不能生成翻页和拆分任务
+        if (result.count < 0)
+            return true;
+        int totalListCount = result.count;
+
+        // 第1页的文书数量就是该查询条件的文书数量, 拆分查询条件时使用
+        // 本页有条目解不出来时仍然生成翻页和拆分任务, 只有本页不记为已抓取
+        if (index.equals("1"))
+            QueryPlanner.record(APIScheduler.decodeValue(param), totalListCount);
+        if (result.succeed)
+            recordCrawled(param, index, totalListCount);
+
         // 如果当前为第1页, 并且文书数量超过了10条, 生成后面最多19页的请求
         if (totalListCount > 10 && index.equals("1")) {
             String decodedParams = APIScheduler.decodeValue(param);
             logger.info("try to generate next pages request for {}", decodedParams);
 
+            // 最近抓取过的页不再生成任务
             int count = Math.min(20, (totalListCount + 9) / 10);
-            for (int page = 2; page < count; page++) {
+            List<Integer> pages = new ArrayList<>();
+            for (int page = 2; page < count; page++)
+                pages.add(page);
+            for (int page : CrawlFrontier.needCrawlPages(decodedParams, pages)) {
                 TaskPushUtil.pushAPIListTask(param, mq, page);
             }
         }
@@ -146,9 +255,10 @@ public class ListContentCrawler {
             String decodedParams = APIScheduler.decodeValue(param);
             logger.info("try to subdivide request for {}", decodedParams);
 
-            String[] splitParams = ListParams.subdivideRequests(decodedParams);
+            String[] splitParams = QueryPlanner.subdivide(decodedParams, totalListCount);
             if (splitParams != null) {
-                for (String item : splitParams) {
+                // 最近抓取过的子条件不再生成任务, 它的翻页和拆分在上次抓取时已经生成
+                for (String item : CrawlFrontier.needCrawl(Arrays.asList(splitParams), 1)) {
                     String encodedItem = APIScheduler.encodeValue(item);
                     // 只构造第一页的查询, 如果有翻页会在处理该请求时再生成
                     TaskPushUtil.pushAPIListTask(encodedItem, mq, 1);
@@ -160,6 +270,15 @@ public class ListContentCrawler {
         return true;
     }
 
+    // 记录该页已抓取
+    private static void recordCrawled(String param, String index, int count) {
+        try {
+            CrawlFrontier.crawled(APIScheduler.decodeValue(param), Integer.parseInt(index), count);
+        } catch (NumberFormatException e) {
+            logger.warn("invalid list page index {}", index);
+        }
+    }
+
     // 检查网页内容里是否有要求刷新网页的提示
     private static String pageErrorMessage(String title, String data) {
         if (title.contains("访问验证") || data.contains("访问验证") || data.contains("window.location.href='/Html_Pages/VisitRemind20180914.html"))
@@ -172,41 +291,109 @@ public class ListContentCrawler {
     // 解密列表数据并添加doc任务
     // 参数refresh表示当出现解析错误时是否需要刷新网页 (在Decrypter中不需要刷新)
     // 参数check表示是否在检查模式下, 在该模式下如果count为空也返回true (不用再继续检查)
-    public static boolean decryptData(JavascriptExecutor jsExecutor, TaskMQ mq, String data, String param, String index, boolean refresh, boolean check) {
-        Object result;
+    public static boolean decryptData(APISession session, TaskMQ mq, String data, String param, String index, boolean refresh, boolean check) {
+        return decryptList(session, mq, data, param, index, refresh, check).succeed;
+    }
+
+    // 列表数据的解密结果
+    // count为该查询条件下的文书总数量 (没有解析出来时为-1), succeed表示本页所有条目都已处理
+    // 第1页的条目解不出来时count仍然有效, 翻页和拆分任务照常生成
+    static final class DecryptResult {
+        final int count;
+        final boolean succeed;
+
+        private DecryptResult(int count, boolean succeed) {
+            this.count = count;
+            this.succeed = succeed;
+        }
+
+        static DecryptResult failed(int count) {
+            return new DecryptResult(count, false);
+        }
+
+        static DecryptResult succeed(int count) {
+            return new DecryptResult(count, true);
+        }
+    }
+
+    // 解密列表数据并添加doc任务
+    private static DecryptResult decryptList(APISession session, TaskMQ mq, String data, String param, String index, boolean refresh, boolean check) {
+        // 优先使用本地解密引擎, 同一页的数据必须在同一个引擎中解密 (RunEval会设置解密key)
+        LocalDecrypter local = session.getLocalDecrypter();
+        int totalListCount = -1;
+        List listData;
         try {
-            data = "(" +  data + ")";
-            String script = "datalist = eval(" + data + ");dataCount = (datalist[0].Count != undefined ? datalist[0].Count : 0);if (datalist[0].RunEval != undefined) {eval(unzip(datalist[0].RunEval));} return datalist;";
-            result = jsExecutor.executeScript(script);
+            String evalData = "(" +  data + ")";
+            listData = local != null ? local.evalList(evalData) : evalListInBrowser(session.getJsExecutor(), evalData);
         } catch (Exception e) {
             logger.warn("exception at execute {}. {}, {}", data, e.getMessage(), e.getCause());
+            if (local != null) {
+                // 本地引擎执行失败, 改用浏览器重新解密
+                session.disableLocalDecrypter();
+                return decryptList(session, mq, data, param, index, refresh, check);
+            }
             // 如果是js错误, 需要重新加载网页
             //if (refresh && e.getMessage().contains("javascript error"))
-            //    APIScheduler.refresh("list page javascript error, eval failed");
-            return false;
+            //    session.refresh("list page javascript error, eval failed");
+            return DecryptResult.failed(-1);
         }
 
         try {
-            if (result instanceof List) {
-                List listData = (List)result;
-
+            if (listData != null) {
                 // 该查询条件下的文书总数量
                 String countStr = (String)((Map)listData.get(0)).get("Count");
                 if (countStr == null) {
                     // 没有返回结果 (在check模式下返回true, 正常抓取模式下返回false)
                     // 结果为空就是系统繁忙, 有时候重新请求就能有返回, 有时候可能就是被封IP了, 无法通过一次行为来做判断
                     logger.warn("list api result is empty. Param: {}, Index {}", APIScheduler.decodeValue(param), index);
-                    return check;
+                    if (session != null)
+                        session.systemBusy();
+                    return check ? DecryptResult.succeed(-1) : DecryptResult.failed(-1);
                 } else if (countStr.equalsIgnoreCase("0")) {
                     // 该查询条件没有数据
                     logger.info("there is no result for this search param {} index {}, countStr {}", APIScheduler.decodeValue(param), index, countStr);
-                    return true;
+                    return DecryptResult.succeed(0);
                 }
 
                 totalListCount = Integer.parseInt(countStr);
                 logger.info("total list count {}", totalListCount);
                 logger.info("doc count is {}", listData.size() - 1);
 
+                // 本页所有的docId一次解密 (浏览器中只需要一次executeScript)
+                List<String> encryptedIds = new ArrayList<>();
+                for (int i = 1; i < listData.size(); i++)
+                    encryptedIds.add((String)((Map)listData.get(i)).get("文书ID"));
+
+                List decryptedIds;
+                try {
+                    logger.info("try to decrypt {} docIds", encryptedIds.size());
+                    decryptedIds = local != null ? local.decryptDocIds(encryptedIds) : decryptDocIdsInBrowser(session.getJsExecutor(), encryptedIds);
+                } catch (Exception e) {
+                    logger.warn("exception at execute decrypt docIds. {}", e.getMessage());
+                    // 本地引擎执行失败, 改用浏览器重新解密
+                    if (local != null) {
+                        session.disableLocalDecrypter();
+                        return decryptList(session, mq, data, param, index, refresh, check);
+                    }
+                    // 如果是js错误, 需要重新加载网页
+                    if (refresh && e.getMessage() != null && e.getMessage().contains("javascript error"))
+                        session.refresh("list page javascript error, decrypt docid failed");
+                    return DecryptResult.failed(totalListCount);
+                }
+                if (decryptedIds == null || decryptedIds.size() != encryptedIds.size()) {
+                    logger.warn("invalid decrypt docIds result. {}", decryptedIds);
+                    return DecryptResult.failed(totalListCount);
+                }
+
+                // 本地引擎的结果先整页检查, 有脚本错误或者与网站不一致的docId时在写入和添加任务之前改用浏览器重新解密
+                // (否则已处理的条目会在浏览器解密时再添加一次doc任务)
+                if (local != null && !checkLocalDecrypted(decryptedIds)) {
+                    session.disableLocalDecrypter();
+                    return decryptList(session, mq, data, param, index, refresh, check);
+                }
+
+                boolean malformed = false;
+                boolean scriptError = false;
                 for (int i = 1; i < listData.size(); i++) {
                     Map item = (Map)listData.get(i);
                     String docIdStr = (String)item.get("文书ID");
@@ -218,54 +405,99 @@ public class ListContentCrawler {
                     String judgeDate = (String)item.get("裁判日期");
                     casetype = combineCaseType(casetype, program);
 
-                    String script = "unzipId = unzip('" + docIdStr + "');return com.str.Decrypt(unzipId);";
-                    Object docIdRes;
-                    try {
-                        logger.info("try to decrypt docId {}", docIdStr);
-                        docIdRes = jsExecutor.executeScript(script);
-                        logger.info("decrypted docId is {}", docIdRes);
-                    } catch (Exception e) {
-                        logger.warn("exception at execute decrypt docId. {} \n {}", e.getMessage(), script);
-                        // 如果是UTF-8错误, 不需要再尝试, 这些都解不出来, 放到原始数据里
-                        if (e.getMessage().contains("javascript error: Malformed UTF-8 data")) {
-                            logger.info("incorrect UTF-8 data, ignore.");
-                            return false;
-                        }
-                        // 如果是js错误, 需要重新加载网页
-                        if (refresh && e.getMessage().contains("javascript error")) {
-                            APIScheduler.refresh("list page javascript error, decrypt docid failed");
-                            return false;
-                        }
+                    Map decrypted = (Map)decryptedIds.get(i - 1);
+                    int code = ((Number)decrypted.get("code")).intValue();
+                    if (code == DECRYPT_MALFORMED) {
+                        // 如果是UTF-8错误, 不需要再尝试, 这些都解不出来, 整页放到原始数据里
+                        logger.info("incorrect UTF-8 data, ignore. {}", docIdStr);
+                        malformed = true;
+                        continue;
+                    } else if (code == DECRYPT_SCRIPT_ERROR) {
+                        logger.warn("decrypt docId failed. {} \n {}", decrypted.get("error"), docIdStr);
+                        scriptError = true;
+                        continue;
+                    }
+
+                    String docId = (String)decrypted.get("id");
+                    logger.info("docId={}, title={}", docId, title);
+                    if (docId == null || docId.isEmpty()) {
+                        logger.warn("docId is empty. {}", docIdStr);
                         continue;
                     }
-                    if (docIdRes instanceof String) {
-                        String docId = (String) docIdRes;
-                        logger.info("docId={}, title={}", docId, title);
-                        if (docId.isEmpty()) {
-                            logger.warn("docId is empty. {}", docId);
-                            continue;
-                        }
-                        if (!APIScheduler.isValidDocId(docId)) {
-                            logger.warn("invalid docid {}", docId);
-                            continue;
-                        }
-
-                        MongoUtils.insertWenshuDesc(title, caseCourt, caseNumber, judgeDate, casetype, null, docId);
-                        if (mq != null && !MongoUtils.wenshuGotFinished(docId))
-                            mq.pushMessage(docId.getBytes(), TaskMQ.TAG_API_DOC);
-                    } else
-                        logger.warn("decrypt doc id failed. {}", docIdRes);
+                    if (!APIScheduler.isValidDocId(docId)) {
+                        logger.warn("invalid docid {}", docId);
+                        continue;
+                    }
+
+                    MongoUtils.insertWenshuDesc(title, caseCourt, caseNumber, judgeDate, casetype, null, docId);
+                    if (mq != null && !MongoUtils.wenshuGotFinished(docId))
+                        mq.pushMessage(docId.getBytes(), TaskMQ.TAG_API_DOC);
                 }
-            } else
-                logger.warn("invalid javascript result data. {}", result);
+
+                // 其它条目已经正常处理, 有解不出来的条目时整页仍然按失败处理
+                if (malformed)
+                    return DecryptResult.failed(totalListCount);
+                // 如果是js错误, 需要重新加载网页
+                if (scriptError && refresh) {
+                    session.refresh("list page javascript error, decrypt docid failed");
+                    return DecryptResult.failed(totalListCount);
+                }
+            } else {
+                // 无法解析的结果不能当作没有数据, 否则会记为空查询, 拆分时跳过该条件
+                logger.warn("invalid javascript result data.");
+                return DecryptResult.failed(-1);
+            }
         } catch (Exception e) {
             logger.warn("exception at get data. {}， {}", e.getMessage(), e.getCause());
-            return false;
+            return DecryptResult.failed(totalListCount);
         }
 
+        return DecryptResult.succeed(totalListCount);
+    }
+
+    // 检查本地引擎解密出来的整页docId, 有脚本错误或者不是有效的docId时返回false
+    // 解不出来的UTF-8错误和空docId在浏览器中也一样, 不需要重新解密
+    static boolean checkLocalDecrypted(List decryptedIds) {
+        for (Object item : decryptedIds) {
+            Map decrypted = (Map) item;
+            int code = ((Number) decrypted.get("code")).intValue();
+            if (code == DECRYPT_SCRIPT_ERROR) {
+                logger.warn("local decrypt docId failed. {}", decrypted.get("error"));
+                return false;
+            }
+            if (code == DECRYPT_MALFORMED)
+                continue;
+
+            String docId = (String) decrypted.get("id");
+            if (docId != null && !docId.isEmpty() && !APIScheduler.isValidDocId(docId)) {
+                logger.warn("invalid local decrypted docid {}", docId);
+                return false;
+            }
+        }
         return true;
     }
 
+    // 在浏览器中执行列表数据
+    private static List evalListInBrowser(JavascriptExecutor jsExecutor, String data) {
+        String script = "datalist = eval(" + data + ");dataCount = (datalist[0].Count != undefined ? datalist[0].Count : 0);if (datalist[0].RunEval != undefined) {eval(unzip(datalist[0].RunEval));} return datalist;";
+        Object result = jsExecutor.executeScript(script);
+        if (result instanceof List)
+            return (List) result;
+
+        logger.warn("invalid javascript result data. {}", result);
+        return null;
+    }
+
+    // 在浏览器中一次解密多个docId
+    private static List decryptDocIdsInBrowser(JavascriptExecutor jsExecutor, List<String> encryptedIds) {
+        Object result = jsExecutor.executeScript("var ids = arguments[0];" + decryptDocIdsScript, encryptedIds);
+        if (result instanceof List)
+            return (List) result;
+
+        logger.warn("invalid decrypt docIds result. {}", result);
+        return null;
+    }
+
     // 根据案件类型编号和审判程序, 合成字符串形式的案件类型 (参考官网前端js的实现)
     private static String combineCaseType(String caseType, String program) {
         caseType = convertCaseType(caseType);
@@ -0,0 +1,148 @@
+package com.domoes.APIs;
+
+import com.domoes.kafka.TaskMQ;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Created by liufei on 2019/7/22.
+ * 列表API的异步流水线
+ *   请求通过okhttp enqueue异步发送, 发送时只读取会话的cookie和guid/vl5x, 不占用会话
+ *   返回的数据交给解密线程处理, 解密时才借用会话, 这样网络等待与解密/写库可以并行
+ *   同时处理中的任务(包括请求和解密)不超过maxInFlight个, 超过时submit会等待
+ */
+public class ListContentPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(ListContentPipeline.class);
+
+    private static int maxInFlight;
+    private static Semaphore inFlight;
+    private static ExecutorService decryptExecutor;
+
+    /**
+     * 初始化流水线
+     * @param maxInFlight 同时处理中的列表任务数量, 小于等于1时不启用 (使用ListContentCrawler.load同步处理)
+     * @param decryptThreads 解密线程数量, 一般与会话数量一致
+     */
+    public static void init(int maxInFlight, int decryptThreads) {
+        logger.info("list pipeline maxInFlight = {}, decryptThreads = {}", maxInFlight, decryptThreads);
+        if (maxInFlight <= 1)
+            return;
+
+        ListContentPipeline.maxInFlight = maxInFlight;
+        inFlight = new Semaphore(maxInFlight);
+        decryptExecutor = Executors.newFixedThreadPool(Math.max(1, decryptThreads));
+    }
+
+    public static boolean isEnabled() {
+        return inFlight != null;
+    }
+
+    /**
+     * 提交一个列表任务
+     * @param message json结构体, 包含字段Param, Index
+     * @param callback 任务处理完成后调用 (在okhttp或解密线程中), 参数含义与ListContentCrawler.load的返回值一致
+     */
+    public static void submit(TaskMQ mq, String message, Consumer<LoadResult> callback) {
+        String[] paramAndIndex = ListContentCrawler.parseMessage(message);
+        if (paramAndIndex == null) {
+            callback.accept(LoadResult.SUCCEED);
+            return;
+        }
+        String param = paramAndIndex[0];
+        String index = paramAndIndex[1];
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            logger.warn("interrupted at acquire in flight permit. {}", e.getMessage());
+            callback.accept(LoadResult.FAILED);
+            return;
+        }
+
+        APISession session = APIScheduler.nextSession();
+        Request request = ListContentCrawler.buildRequest(session, param, index);
+        if (request == null) {
+            session.markRefresh("APISession is not initialized.");
+            finish(callback, LoadResult.FAILED);
+            return;
+        }
+
+        // okhttp默认每个host最多同时5个请求
+        OkHttpClient client = session.getOkHttpClient();
+        if (client.dispatcher().getMaxRequestsPerHost() < maxInFlight)
+            client.dispatcher().setMaxRequestsPerHost(maxInFlight);
+
+        session.acquireRate();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                logger.warn("exception at call url. {}", e.getMessage());
+                finish(callback, LoadResult.FAILED);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                String data;
+                try (Response r = response) {
+                    data = ListContentCrawler.readResponse(session, r, false);
+                } catch (ListContentCrawler.LoadFailure e) {
+                    finish(callback, e.getResult());
+                    return;
+                } catch (Exception e) {
+                    logger.warn("exception at read response. {}", e.getMessage());
+                    finish(callback, LoadResult.FAILED);
+                    return;
+                }
+
+                try {
+                    decryptExecutor.execute(() -> decrypt(mq, data, param, index, callback));
+                } catch (Exception e) {
+                    logger.warn("exception at submit decrypt task. {}", e.getMessage());
+                    finish(callback, LoadResult.FAILED);
+                }
+            }
+        });
+    }
+
+    // 借用会话解密并保存列表数据
+    private static void decrypt(TaskMQ mq, String data, String param, String index, Consumer<LoadResult> callback) {
+        boolean succeed = false;
+        APISession session = APIScheduler.leaseSession();
+        if (session != null) {
+            try {
+                succeed = ListContentCrawler.handleData(session, mq, data, param, index);
+            } catch (Exception e) {
+                logger.warn("exception at decrypt list data. {}", e.getMessage());
+            } finally {
+                APIScheduler.releaseSession(session);
+            }
+        }
+
+        finish(callback, succeed ? LoadResult.SUCCEED : LoadResult.FAILED);
+    }
+
+    private static void finish(Consumer<LoadResult> callback, LoadResult result) {
+        inFlight.release();
+        try {
+            callback.accept(result);
+        } catch (Exception e) {
+            logger.warn("exception at list task callback. {}", e.getMessage());
+        }
+    }
+
+    public static void stop() {
+        if (decryptExecutor != null)
+            decryptExecutor.shutdown();
+    }
+}
@@ -3,6 +3,9 @@ package com.domoes.APIs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 
 /**
@@ -38,9 +41,13 @@ public class ListParams {
         CourtProvince,      // 法院地域
     }
 */
+    static final String judgeDateKey = "裁判日期";
+    // 一个查询条件最多能翻到的文书数量 (20页, 每页10条)
+    static final int maxResults = 200;
+
     static String[] caseTypes = new String[] {"刑事案件", "民事案件", "行政案件", "赔偿案件", "执行案件"};
-    private static String[] judgeYears = new String[] {"1996", "1997", "1998", "1999", "2000", "2001", "2002", "2003",
-            "2004", "2005", "2006", "2007", "2008", "2009", "2010", "2011", "2012", "2013", "2014", "2015", "2016", "2017", "2018", "2019"};
+    private static final int firstJudgeYear = 1996;
+    private static String[] judgeYears = judgeYearsUntil(LocalDate.now().getYear());
     private static String[] courtLayers = new String[] {"最高法院", "高级法院", "中级法院", "基层法院"};
     public static String[] judgePrograms = new String[] {"一审", "二审", "再审", "复核", "刑罚变更", "非诉执行审查", "再审审查与审判监督", "其他"};
     public static String[] wenshuTypes = new String[] {"判决书", "裁定书", "调解书", "决定书", "通知书", "批复", "答复", "函", "令", "其他"};
@@ -49,6 +56,22 @@ public class ListParams {
             "广东省", "广西壮族自治区", "海南省", "重庆市", "四川省", "贵州省", "云南省", "西藏自治区", "陕西省", "甘肃省", "青海省",
             "宁夏回族自治区", "新疆维吾尔自治区"};
 
+    // 可用于拆分的关键字, 按默认的拆分顺序排列
+    static final String[] splitDimensions = new String[] {"文书类型", "审判程序", "案件类型", "裁判年份", "法院层级", "法院地域"};
+
+    // 关键字可取的值
+    static String[] dimensionValues(String key) {
+        switch (key) {
+            case "文书类型": return wenshuTypes;
+            case "审判程序": return judgePrograms;
+            case "案件类型": return caseTypes;
+            case "裁判年份": return judgeYears;
+            case "法院层级": return courtLayers;
+            case "法院地域": return courtProvinces;
+            default: return new String[0];
+        }
+    }
+
     // 将请求进行细分
     // 细分的规则:
     //    各条件的优先级: 案件类型 --> 文书类型 --> 裁判年份 --> 法院层级 --> 审判程序 --> 法院名称 --> 关键词(1,2,3,...)
@@ -66,9 +89,7 @@ public class ListParams {
             return subdivideCourtLayers(paramPairs);
         if (!paramPairs.containsKey("法院地域"))
             return subdivideCourtProvinces(paramPairs);
-
-        logger.warn("cannot split request params. {}", param);
-        return null;
+        return subdivideJudgeDates(paramPairs, 0);
     }
 
     public static List<List<String>> subdivideRequests(List<String> conditions) {
@@ -239,11 +260,113 @@ public class ListParams {
         return result.toArray(new String[0]);
     }
 
-    // 将参数合并为string
+    // 1996年到指定年份
+    static String[] judgeYearsUntil(int lastYear) {
+        List<String> result = new ArrayList<>();
+        for (int year = firstJudgeYear; year <= lastYear; year++)
+            result.add(String.valueOf(year));
+        return result.toArray(new String[0]);
+    }
+
+    // 按裁判日期范围拆分, 其它关键字都用完之后使用
+    // 范围跨年时按年拆分, 同一年内按月拆分, 同一月内按天拆分; 拆分的份数按文书数量估算, 至少拆成两份
+    // 拆分后超过200条的范围在处理时继续拆分, 直到只剩一天
+    static String[] subdivideJudgeDates(Map<String, String> params, int count) {
+        LocalDate[] range = judgeDateRange(params);
+        if (range == null) {
+            logger.warn("cannot split request params. {}", params);
+            return null;
+        }
+
+        List<LocalDate[]> ranges = splitDateRange(range[0], range[1], (count + maxResults - 1) / maxResults);
+        if (ranges == null) {
+            logger.warn("cannot split request params, judge date is a single day. {}", params);
+            return null;
+        }
+
+        List<String> result = new ArrayList<>(ranges.size());
+        Map<String, String> child = new HashMap<>(params);
+        for (LocalDate[] item : ranges) {
+            child.put(judgeDateKey, formatDateRange(item[0], item[1]));
+            result.add(joinParamMaps(child));
+        }
+        return result.toArray(new String[0]);
+    }
+
+    // 当前的裁判日期范围: 已有裁判日期时使用该范围, 否则使用裁判年份或全部年份
+    private static LocalDate[] judgeDateRange(Map<String, String> params) {
+        String dates = params.get(judgeDateKey);
+        if (dates != null)
+            return parseDateRange(dates);
+
+        String year = params.get("裁判年份");
+        try {
+            if (year != null)
+                return new LocalDate[] {LocalDate.of(Integer.parseInt(year), 1, 1), LocalDate.of(Integer.parseInt(year), 12, 31)};
+        } catch (Exception e) {
+            logger.warn("invalid judge year {}", year);
+            return null;
+        }
+        return new LocalDate[] {LocalDate.of(firstJudgeYear, 1, 1), LocalDate.now()};
+    }
+
+    // 把[start, end]拆成pieces份, 只有一天时返回null
+    static List<LocalDate[]> splitDateRange(LocalDate start, LocalDate end, int pieces) {
+        // 每一份的起始日期: 跨年时为每年的1月1日, 同年跨月时为每月1日, 否则为每天
+        List<LocalDate> units = new ArrayList<>();
+        units.add(start);
+        if (start.getYear() != end.getYear()) {
+            for (LocalDate date = start.withDayOfYear(1).plusYears(1); !date.isAfter(end); date = date.plusYears(1))
+                units.add(date);
+        } else if (start.getMonthValue() != end.getMonthValue()) {
+            for (LocalDate date = start.withDayOfMonth(1).plusMonths(1); !date.isAfter(end); date = date.plusMonths(1))
+                units.add(date);
+        } else {
+            for (LocalDate date = start.plusDays(1); !date.isAfter(end); date = date.plusDays(1))
+                units.add(date);
+        }
+        if (units.size() < 2)
+            return null;
+
+        int count = Math.min(units.size(), Math.max(2, pieces));
+        List<LocalDate[]> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int next = (i + 1) * units.size() / count;
+            LocalDate from = units.get(i * units.size() / count);
+            LocalDate to = next < units.size() ? units.get(next).minus(1, ChronoUnit.DAYS) : end;
+            result.add(new LocalDate[] {from, to});
+        }
+        return result;
+    }
+
+    static String formatDateRange(LocalDate start, LocalDate end) {
+        return start.format(DateTimeFormatter.ISO_LOCAL_DATE) + " TO " + end.format(DateTimeFormatter.ISO_LOCAL_DATE);
+    }
+
+    // 解析"yyyy-MM-dd TO yyyy-MM-dd", 格式不对时返回null
+    static LocalDate[] parseDateRange(String value) {
+        String[] dates = value.split(" TO ");
+        try {
+            if (dates.length == 2) {
+                LocalDate start = LocalDate.parse(dates[0].trim());
+                LocalDate end = LocalDate.parse(dates[1].trim());
+                if (!start.isAfter(end))
+                    return new LocalDate[] {start, end};
+            }
+        } catch (Exception e) {
+            logger.warn("invalid judge date range {}. {}", value, e.getMessage());
+            return null;
+        }
+        logger.warn("invalid judge date range {}", value);
+        return null;
+    }
+
+    // 将参数按关键字排序后合并为string
+    // 裁判日期的值是"yyyy-MM-dd TO yyyy-MM-dd", 允许带空格
     public static String joinParamMaps(Map<String, String> params) {
         StringBuilder sb = new StringBuilder();
-        params.forEach((key, value) -> {
-            if (key.contains(" ") || value.contains(" ")) {
+        new TreeMap<>(params).forEach((key, value) -> {
+            if (key.contains(" ") || (value.contains(" ") && !key.equals(judgeDateKey))) {
                 logger.error("params key and value can't contain space. {} - {}", key, value);
             } else {
                 sb.append(key);
@@ -252,19 +375,14 @@ public class ListParams {
                 sb.append(",");
             }
         });
-        // 删掉最后一个,
-        sb.deleteCharAt(sb.length() - 1);
+        // 删掉最后一个, (所有参数都不合法时为空串)
+        if (sb.length() > 0)
+            sb.deleteCharAt(sb.length() - 1);
         return sb.toString();
     }
 
     // 将string拆分为参数对
     static Map<String, String> splitParams(String params) {
-        Map<String, String> result = new HashMap<>();
-        String[] data = params.split(",");
-        for (String item : data) {
-            String[] pair = item.split(":");
-            result.put(pair[0], pair[1]);
-        }
-        return result;
+        return CanonicalParam.parse(params);
     }
 }
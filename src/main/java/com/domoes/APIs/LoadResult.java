@@ -0,0 +1,24 @@
+package com.domoes.APIs;
+
+/**
+ * Created by liufei on 2019/7/27.
+ * 任务的处理结果, 失败时区分原因, 重试时按原因选择等待时间
+ */
+public enum LoadResult {
+    SUCCEED,
+    RATE_LIMITED,       // 429/502/503, 或者代理提示访问太频繁
+    REMIND_KEY,         // 返回remind key, 需要重新计算key
+    VERIFY,             // 需要访问验证, 或者页面要求刷新
+    FAILED;             // 其它失败 (会话未就绪, 网络异常, 数据无效等)
+
+    public boolean isSucceed() {
+        return this == SUCCEED;
+    }
+
+    // http请求失败时的结果
+    static LoadResult ofHttpCode(int code) {
+        if (code == 429 || code == 502 || code == 503)
+            return RATE_LIMITED;
+        return FAILED;
+    }
+}
@@ -0,0 +1,184 @@
+package com.domoes.APIs;
+
+import com.alibaba.fastjson.JSON;
+import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.openqa.selenium.JavascriptExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by liufei on 2019/7/21.
+ * 本地解密引擎
+ *   把网站的unzip/Decrypt脚本加载到内置的js引擎(nashorn)中, 在本地执行RunEval和解密DocID
+ *   避免每个DocID都通过webdriver到chrome执行一次脚本
+ *
+ * 脚本源码只需要从浏览器获取一次, 所有会话共用; 但每个会话有自己的js引擎, 因为RunEval会修改引擎中的解密key
+ */
+class LocalDecrypter {
+    private static final Logger logger = LoggerFactory.getLogger(LocalDecrypter.class);
+
+    // 在nashorn中模拟浏览器的全局对象, 只需要让网站脚本能加载完成即可
+    private static final String browserShim = "var window = this; var self = this; var top = this; var parent = this;" +
+            "var navigator = {userAgent: 'Mozilla/5.0 (Windows NT 6.1; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/75.0.3770.100 Safari/537.36', appName: 'Netscape', platform: 'Win32'};" +
+            "var location = {href: 'http://wenshu.court.gov.cn/List/List', protocol: 'http:', host: 'wenshu.court.gov.cn', hostname: 'wenshu.court.gov.cn', search: '', pathname: '/List/List'};" +
+            "var document = {cookie: '', location: location, createElement: function() { return {style: {}, setAttribute: function() {}}; }," +
+            " getElementById: function() { return null; }, getElementsByTagName: function() { return []; }, addEventListener: function() {}, attachEvent: function() {}};" +
+            "var setTimeout = function() { return 0; }; var setInterval = function() { return 0; }; var clearTimeout = function() {}; var clearInterval = function() {};";
+
+    private static final String scriptsQuery = "var result = [];" +
+            "for (var i = 0; i < document.scripts.length; i++) { result.push(document.scripts[i].src ? 'src:' + document.scripts[i].src : 'text:' + document.scripts[i].text); }" +
+            "return result;";
+
+    // 所有会话共用的脚本源码
+    private static volatile List<String> scriptSources;
+    // nashorn引擎创建失败 (运行时的jvm中没有jdk.nashorn), 不再尝试
+    private static volatile boolean engineUnavailable = false;
+
+    private ScriptEngine engine;
+
+    /**
+     * 为会话创建本地解密引擎
+     * @return 脚本加载失败或者nashorn引擎创建失败时返回null, 调用方继续使用浏览器解密
+     */
+    static LocalDecrypter create(JavascriptExecutor jsExecutor, OkHttpClient client) {
+        if (engineUnavailable)
+            return null;
+
+        List<String> sources = scriptSources;
+        if (sources == null) {
+            sources = loadScriptSources(jsExecutor, client);
+            if (sources == null)
+                return null;
+        }
+
+        LocalDecrypter decrypter = fromSources(sources);
+        if (decrypter == null)
+            return null;
+
+        scriptSources = sources;
+        return decrypter;
+    }
+
+    // 用给定的脚本源码创建引擎, 初始化失败时返回null
+    static LocalDecrypter fromSources(List<String> sources) {
+        LocalDecrypter decrypter = new LocalDecrypter();
+        return decrypter.init(sources) ? decrypter : null;
+    }
+
+    // 获取cookie页上加载的所有脚本 (外部脚本通过okhttp下载, 内联脚本直接使用)
+    private static List<String> loadScriptSources(JavascriptExecutor jsExecutor, OkHttpClient client) {
+        Object result;
+        try {
+            result = jsExecutor.executeScript(scriptsQuery);
+        } catch (Exception e) {
+            logger.warn("exception at query page scripts. {}", e.getMessage());
+            return null;
+        }
+        if (!(result instanceof List)) {
+            logger.warn("invalid page scripts result. {}", result);
+            return null;
+        }
+
+        List<String> sources = new ArrayList<>();
+        for (Object item : (List) result) {
+            String value = (String) item;
+            if (value.startsWith("text:")) {
+                sources.add(value.substring(5));
+                continue;
+            }
+
+            String url = value.substring(4);
+            Request request = new Request.Builder().url(url).build();
+            try (Response response = client.newCall(request).execute()) {
+                if (!response.isSuccessful() || response.body() == null) {
+                    logger.warn("download script {} failed. {}", url, response);
+                    continue;
+                }
+                sources.add(response.body().string());
+                logger.info("downloaded script {}", url);
+            } catch (Exception e) {
+                logger.warn("exception at download script {}. {}", url, e.getMessage());
+            }
+        }
+
+        return sources;
+    }
+
+    // 创建不能访问java类的nashorn引擎
+    // 脚本和列表数据都来自网站 (经过代理的http请求), 不能让它们通过Java.type等调用jvm中的类
+    // 编译时直接引用jdk.nashorn (项目按jdk8编译), 运行时的jvm中没有该类时返回null
+    static ScriptEngine createEngine() {
+        try {
+            return new NashornScriptEngineFactory().getScriptEngine(new String[] {"--no-java"},
+                    LocalDecrypter.class.getClassLoader(), className -> false);
+        } catch (LinkageError e) {
+            logger.warn("create nashorn engine failed. {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean init(List<String> sources) {
+        engine = createEngine();
+        if (engine == null) {
+            logger.warn("nashorn engine is not available, use browser to decrypt.");
+            engineUnavailable = true;
+            return false;
+        }
+
+        try {
+            engine.eval(browserShim);
+        } catch (ScriptException e) {
+            logger.warn("exception at eval browser shim. {}", e.getMessage());
+            return false;
+        }
+
+        // 网站的脚本大多依赖DOM, 执行失败是正常的, 只要解密相关的函数加载成功即可
+        for (String source : sources) {
+            try {
+                engine.eval(source);
+            } catch (Exception e) {
+                logger.debug("ignore page script error. {}", e.getMessage());
+            }
+        }
+
+        try {
+            Object ready = engine.eval("typeof unzip === 'function' && typeof com !== 'undefined' && typeof com.str.Decrypt === 'function'");
+            if (!Boolean.TRUE.equals(ready)) {
+                logger.warn("unzip or com.str.Decrypt is not defined in page scripts.");
+                return false;
+            }
+        } catch (ScriptException e) {
+            logger.warn("exception at check decrypt functions. {}", e.getMessage());
+            return false;
+        }
+
+        logger.info("local decrypter initialized with {} scripts.", sources.size());
+        return true;
+    }
+
+    // 执行列表数据, 与浏览器中的脚本一致 (先eval数据, 再eval解压后的RunEval设置解密key)
+    // data为加了括号的原始返回数据
+    synchronized List evalList(String data) throws ScriptException {
+        String script = "(function() { var datalist = eval(" + data + ");" +
+                "if (datalist[0].RunEval != undefined) { eval(unzip(datalist[0].RunEval)); }" +
+                "return JSON.stringify(datalist); })()";
+        Object result = engine.eval(script);
+        return JSON.parseArray((String) result);
+    }
+
+    // 批量解密DocID, 必须在evalList之后调用
+    // 返回值与浏览器中的批量解密一致, 每个条目为 {code, id, error}
+    synchronized List decryptDocIds(List<String> encryptedIds) throws ScriptException {
+        engine.put("encryptedDocIds", JSON.toJSONString(encryptedIds));
+        Object result = engine.eval("JSON.stringify((function(ids) {" + ListContentCrawler.decryptDocIdsScript + "})(JSON.parse(encryptedDocIds)))");
+        return JSON.parseArray((String) result);
+    }
+}
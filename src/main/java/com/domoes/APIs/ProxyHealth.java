@@ -0,0 +1,47 @@
+package com.domoes.APIs;
+
+/**
+ * Created by liufei on 2019/7/30.
+ * 一个出口ip的健康度
+ *   统计请求成功率, 429/502/503的比例和平均延时, 计数超过窗口大小后减半, 最近的结果权重更大
+ */
+class ProxyHealth {
+    private static final int minSamples = 20;           // 请求数少于这个值时不评分
+    private static final int window = 200;
+    private static final long latencyTarget = 3000;     // 平均延时超过3秒开始扣分
+    private static final double latencyAlpha = 0.2;
+
+    private double requests;
+    private double succeeded;
+    private double limited;
+    private double latency = -1;
+
+    synchronized void record(LoadResult result, long latencyMillis) {
+        if (requests >= window) {
+            requests /= 2;
+            succeeded /= 2;
+            limited /= 2;
+        }
+
+        requests++;
+        if (result.isSucceed())
+            succeeded++;
+        else if (result == LoadResult.RATE_LIMITED)
+            limited++;
+
+        if (latencyMillis >= 0)
+            latency = latency < 0 ? latencyMillis : latency * (1 - latencyAlpha) + latencyMillis * latencyAlpha;
+    }
+
+    // 0~1, 请求数不够时为1
+    // 成功率减去限流比例 (限流比一般的失败扣分更多), 平均延时超过目标值时按比例降低
+    synchronized double score() {
+        if (requests < minSamples)
+            return 1;
+
+        double score = (succeeded - limited) / requests;
+        if (latency > latencyTarget)
+            score *= latencyTarget / latency;
+        return Math.max(0, score);
+    }
+}
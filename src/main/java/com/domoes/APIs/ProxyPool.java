@@ -0,0 +1,112 @@
+package com.domoes.APIs;
+
+import com.domoes.mongodb.MongoUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by liufei on 2019/7/30.
+ * 代理出口ip管理
+ *   每个会话绑定一个出口ip, 按请求结果给ip评分, 分数过低的ip立即淘汰, 会话标记刷新后切换ip
+ *   切换ip通过代理请求switchUrl, 切换记录写入switchip表
+ *   新ip最近被淘汰过, 或者在switchip表中最近出现太多次 (所有节点), 继续切换
+ */
+public class ProxyPool {
+    private static final Logger logger = LoggerFactory.getLogger(ProxyPool.class);
+
+    private static final long historyMinutes = 30;
+    private static final int maxRecentSwitches = 2;     // 30分钟内最多切换到同一个ip的次数
+
+    private static String switchUrl = "http://proxy.abuyun.com/switch-ip";
+    private static double minScore = 0.5;
+
+    private static final Map<String, ProxyHealth> healths = new ConcurrentHashMap<>();
+    private static final Cache<String, Boolean> evictedIps = CacheBuilder.newBuilder()
+            .expireAfterWrite(historyMinutes, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * @param switchUrl 切换出口ip的地址 (通过代理访问)
+     * @param minScore ip评分低于该值时淘汰
+     */
+    public static void init(String switchUrl, double minScore) {
+        logger.info("proxy pool switchUrl = {}, minScore = {}", switchUrl, minScore);
+        ProxyPool.switchUrl = switchUrl;
+        ProxyPool.minScore = minScore;
+    }
+
+    // 切换出口ip, 返回 {新ip, 原始返回内容}, 失败时返回null
+    // 返回内容格式: ip,有效时长,时间戳
+    static String[] switchIp(OkHttpClient client) {
+        Request request = new Request.Builder().url(switchUrl).build();
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                logger.warn("switch ip failed. {}", response);
+                return null;
+            }
+
+            String result = response.body().string().replaceAll("</?.+?/?>", "").trim();
+            logger.info("switch ip result: {}", result);
+            String[] items = result.split(",");
+            if (items.length < 3) {
+                logger.warn("invalid switch ip result. {}", result);
+                return null;
+            }
+            return new String[] {items[0].trim(), result};
+        } catch (Exception e) {
+            logger.warn("exception at switch ip. {}", e.getMessage());
+            return null;
+        }
+    }
+
+    // ip是否可用: 最近没有被淘汰, 并且最近没有频繁出现
+    static boolean isUsable(String ip) {
+        if (evictedIps.getIfPresent(ip) != null) {
+            logger.info("ip {} was evicted recently.", ip);
+            return false;
+        }
+
+        long count = MongoUtils.getSwitchIpCount(ip, System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(historyMinutes));
+        if (count > maxRecentSwitches) {
+            logger.warn("ip {} returned {} times in {} minutes.", ip, count, historyMinutes);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 记录一次请求的结果
+     * @param ip 出口ip, 为null时不记录
+     * @param latencyMillis 请求延时, 未知时为-1
+     * @return ip是否因为这次结果被淘汰
+     */
+    static boolean record(String ip, LoadResult result, long latencyMillis) {
+        if (ip == null)
+            return false;
+
+        ProxyHealth health = healths.computeIfAbsent(ip, key -> new ProxyHealth());
+        health.record(result, latencyMillis);
+        double score = health.score();
+        if (score >= minScore || evictedIps.getIfPresent(ip) != null)
+            return false;
+
+        logger.warn("proxy ip {} evicted, score {}", ip, score);
+        evictedIps.put(ip, true);
+        healths.remove(ip);
+        return true;
+    }
+
+    static double score(String ip) {
+        ProxyHealth health = healths.get(ip);
+        return health != null ? health.score() : 1;
+    }
+}
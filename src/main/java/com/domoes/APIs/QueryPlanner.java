@@ -0,0 +1,165 @@
+package com.domoes.APIs;
+
+import com.domoes.mongodb.MongoUtils;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by liufei on 2019/7/28.
+ * 列表查询条件的拆分计划
+ *   记录每个查询条件返回的文书数量 (querystats表), 拆分时按已知的子条件数量估算每种拆分方式需要的请求数, 选择最少的一种
+ *   已知没有结果的子条件不再生成任务; 所有拆分方式都没有统计数据时按ListParams的默认顺序拆分
+ *   关键字都用完之后按裁判日期范围拆分, 拆分的份数按文书数量估算
+ */
+public class QueryPlanner {
+    private static final Logger logger = LoggerFactory.getLogger(QueryPlanner.class);
+
+    private static final int maxResults = ListParams.maxResults;
+    private static final int pageSize = 10;
+
+    // 查询条件 -> 文书数量, 没有统计数据的条件也缓存一会儿 (值为-1)
+    private static Cache<String, Integer> counts = CacheBuilder.newBuilder()
+            .maximumSize(200000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    // 记录查询条件的文书数量
+    static void record(String param, int count) {
+        String key = CanonicalParam.key(param);
+        counts.put(key, count);
+        MongoUtils.saveQueryCount(key, count);
+    }
+
+    /**
+     * 拆分查询条件
+     * @param param 解码后的查询条件
+     * @param count 该条件的文书数量
+     * @return 拆分后的查询条件, 无法拆分时返回null
+     */
+    static String[] subdivide(String param, int count) {
+        Map<String, String> params = ListParams.splitParams(param);
+
+        // 所有可能的子条件一次查询
+        List<String> keys = new ArrayList<>();
+        for (String dimension : ListParams.splitDimensions) {
+            if (!params.containsKey(dimension)) {
+                for (String value : ListParams.dimensionValues(dimension))
+                    keys.add(childKey(params, dimension, value));
+            }
+        }
+        Map<String, Integer> known = lookup(keys);
+
+        // 其它关键字都用完之后按裁判日期范围拆分
+        String dimension = chooseDimension(params, count, known);
+        if (dimension == null)
+            return ListParams.subdivideJudgeDates(params, count);
+
+        List<String> result = new ArrayList<>();
+        int skipped = 0;
+        for (String value : ListParams.dimensionValues(dimension)) {
+            String key = childKey(params, dimension, value);
+            if (known.getOrDefault(key, -1) == 0) {
+                skipped++;
+                continue;
+            }
+            result.add(key);
+        }
+        logger.info("subdivide {} by {}, {} children, {} known empty skipped", param, dimension, result.size(), skipped);
+        return result.toArray(new String[0]);
+    }
+
+    // 选择估算请求数最少的拆分方式, 都没有统计数据时使用默认顺序中的第一个
+    static String chooseDimension(Map<String, String> params, int count, Map<String, Integer> known) {
+        String first = null;
+        String best = null;
+        long bestCost = Long.MAX_VALUE;
+        for (String dimension : ListParams.splitDimensions) {
+            if (params.containsKey(dimension))
+                continue;
+            if (first == null)
+                first = dimension;
+
+            String[] values = ListParams.dimensionValues(dimension);
+            int knownCount = 0;
+            int knownSum = 0;
+            for (String value : values) {
+                Integer c = known.get(childKey(params, dimension, value));
+                if (c != null && c >= 0) {
+                    knownCount++;
+                    knownSum += c;
+                }
+            }
+            if (knownCount == 0)
+                continue;
+
+            // 没有统计数据的子条件平均分配剩下的数量
+            int unknown = values.length - knownCount;
+            int estimate = unknown > 0 ? Math.max(0, count - knownSum) / unknown : 0;
+            long cost = 0;
+            for (String value : values) {
+                Integer c = known.get(childKey(params, dimension, value));
+                if (c != null && c >= 0)
+                    cost += requestCost(c, true);
+                else
+                    cost += requestCost(estimate, false);
+            }
+
+            logger.debug("dimension {} known {}/{}, cost {}", dimension, knownCount, values.length, cost);
+            if (cost < bestCost) {
+                best = dimension;
+                bestCost = cost;
+            }
+        }
+
+        return best != null ? best : first;
+    }
+
+    // 一个子条件需要的请求数: 每页一次请求; 超过200条时还需要多一次请求和再次拆分
+    // 已知为0的条件不会生成任务, 未知的条件至少需要请求一次
+    static long requestCost(int count, boolean known) {
+        if (count <= 0)
+            return known ? 0 : 1;
+
+        long pages = (Math.min(count, maxResults) + pageSize - 1) / pageSize;
+        if (count <= maxResults)
+            return pages;
+        return pages + (count + maxResults - 1) / maxResults + (count - maxResults + pageSize - 1) / pageSize;
+    }
+
+    // 先查本地缓存, 没有的再从mongodb查询
+    private static Map<String, Integer> lookup(List<String> keys) {
+        Map<String, Integer> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String key : keys) {
+            Integer count = counts.getIfPresent(key);
+            if (count == null)
+                missing.add(key);
+            else if (count >= 0)
+                result.put(key, count);
+        }
+
+        if (!missing.isEmpty()) {
+            Map<String, Integer> loaded = MongoUtils.getQueryCounts(missing);
+            if (loaded != null) {
+                for (String key : missing) {
+                    Integer count = loaded.get(key);
+                    counts.put(key, count != null ? count : -1);
+                    if (count != null)
+                        result.put(key, count);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String childKey(Map<String, String> params, String dimension, String value) {
+        Map<String, String> child = new HashMap<>(params);
+        child.put(dimension, value);
+        return CanonicalParam.of(child);
+    }
+}
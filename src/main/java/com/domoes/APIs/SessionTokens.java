@@ -0,0 +1,58 @@
+package com.domoes.APIs;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by liufei on 2019/7/29.
+ * 一组会话参数 (cookie, guid, vl5x)
+ *   刷新时整组替换, 请求时一次取出, 不会用到新旧混合的参数
+ *   记录创建时间和使用结果, TokenManager按时长和失败率提前刷新
+ */
+final class SessionTokens {
+    // 使用次数少于这个值时不计算失败率
+    private static final int minUsesForRate = 20;
+
+    private final String cookie;
+    private final String guid;          // url编码后的值
+    private final String vl5x;          // url编码后的值
+    private final long createTime = System.currentTimeMillis();
+
+    private final AtomicInteger uses = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    SessionTokens(String cookie, String guid, String vl5x) {
+        this.cookie = cookie;
+        this.guid = guid;
+        this.vl5x = vl5x;
+    }
+
+    String getCookie() {
+        return cookie;
+    }
+
+    String getGuid() {
+        return guid;
+    }
+
+    String getVl5x() {
+        return vl5x;
+    }
+
+    long getAge() {
+        return System.currentTimeMillis() - createTime;
+    }
+
+    // 记录一次请求的结果, 只统计与参数有关的失败 (remind key, 访问验证等)
+    void used(boolean succeed) {
+        uses.incrementAndGet();
+        if (!succeed)
+            failures.incrementAndGet();
+    }
+
+    double getFailureRate() {
+        int count = uses.get();
+        if (count < minUsesForRate)
+            return 0;
+        return (double) failures.get() / count;
+    }
+}
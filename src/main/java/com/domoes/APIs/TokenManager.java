@@ -0,0 +1,74 @@
+package com.domoes.APIs;
+
+import com.domoes.Driver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Created by liufei on 2019/7/29.
+ * 会话参数的后台刷新
+ *   参数使用时间过长, 失败率过高, 或者异步请求标记了需要刷新的会话, 在空闲时由后台线程借出刷新
+ *   刷新完成后整组替换参数, 列表请求不需要等待刷新
+ *   每次只刷新一个会话, 其它会话继续处理任务
+ */
+public class TokenManager {
+    private static final Logger logger = LoggerFactory.getLogger(TokenManager.class);
+
+    private static final long checkIntervalMillis = 1000;
+
+    private static long maxAgeMillis;
+    private static double maxFailureRate;
+    private static Thread thread;
+
+    /**
+     * 启动后台刷新
+     * @param maxAgeSeconds 参数最长使用时间, 小于等于0时不按时间刷新
+     * @param maxFailureRate 失败率超过该值时刷新, 小于等于0时不按失败率刷新
+     */
+    public static void start(long maxAgeSeconds, double maxFailureRate) {
+        logger.info("token manager maxAgeSeconds = {}, maxFailureRate = {}", maxAgeSeconds, maxFailureRate);
+        TokenManager.maxAgeMillis = maxAgeSeconds * 1000;
+        TokenManager.maxFailureRate = maxFailureRate;
+
+        thread = new Thread(TokenManager::loop, "token-manager");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static void stop() {
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    private static void loop() {
+        while (!Driver.isStop()) {
+            try {
+                Thread.sleep(checkIntervalMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            try {
+                refreshOne();
+            } catch (Exception e) {
+                logger.warn("exception at refresh session tokens. {}", e.getMessage());
+            }
+        }
+    }
+
+    // 找到第一个需要刷新并且空闲的会话刷新, 正在使用的会话等下一次检查
+    private static void refreshOne() {
+        for (APISession session : APIScheduler.getSessions()) {
+            String reason = session.refreshReason(maxAgeMillis, maxFailureRate);
+            if (reason == null || !APIScheduler.tryLeaseSession(session))
+                continue;
+
+            try {
+                session.refresh(reason);
+            } finally {
+                APIScheduler.releaseSession(session);
+            }
+            return;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import com.domoes.pages.ListPageCrawler;
 import com.domoes.utils.ProgramConfig;
 import com.domoes.utils.TaskPushUtil;
 import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,7 +43,8 @@ public class CaseCrawler {
 
         numberPattern = Pattern.compile("(\\d+号)");
 
-        int skip = 0;
+        ObjectId lastId = null;
+        int failedCount = 0;
 
         //
         // 先遍历已经获取到的所有文档，把其中的数字编号提取出来{}, 并且记录下哪些数字是已经获取到的，以及最大的数字id
@@ -50,12 +52,22 @@ public class CaseCrawler {
         // 最大的id向上扩展100, 用于添加还未抓取到的文书
         //
         while (!Driver.isStop()) {
-            List<Document> docs = MongoUtils.getCaseNumberList(skip, 1000, 30);
-            if (docs == null || docs.isEmpty())
+            List<Document> docs = MongoUtils.getCaseNumberList(lastId, 1000, 30);
+            if (docs == null) {
+                // 查询失败, 从上次的位置重试
+                if (++failedCount > 10) {
+                    logger.error("get wenshu casenumber failed too many times, last id {}", lastId);
+                    break;
+                }
+                try { Thread.sleep(10000); } catch (Exception e) { logger.warn("exception at sleep. {}", e.getMessage()); }
+                continue;
+            }
+            if (docs.isEmpty())
                 break;
 
             logger.info("get wenshu casenumber count {}", docs.size());
-            skip += docs.size();
+            failedCount = 0;
+            lastId = docs.get(docs.size() - 1).getObjectId("_id");
 
             for (Document doc : docs) {
                 String casenumber = doc.getString("casenumber");
@@ -1,6 +1,7 @@
 package com.domoes;
 
 import com.domoes.APIs.APIScheduler;
+import com.domoes.APIs.APISession;
 import com.domoes.APIs.ListContentCrawler;
 import com.domoes.kafka.TaskMQ;
 import com.domoes.mongodb.MongoUtils;
@@ -8,7 +9,6 @@ import com.domoes.utils.ProgramConfig;
 import com.domoes.utils.TaskCounter;
 import org.bson.Document;
 import org.bson.types.ObjectId;
-import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.WebDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,9 +30,11 @@ public class Decrypter {
             logger.error("init mongodb failed");
             return;
         }
+        MongoUtils.initFinishedFilter(ProgramConfig.getFinishedFilterFile());
 
         if (!APIScheduler.init(ProgramConfig.isUseProxy(), ProgramConfig.isUseRemoteDriver(), ProgramConfig.isHeadless(),
-                ProgramConfig.getProxyIpAndPort(), ProgramConfig.getRateLimit(), ProgramConfig.isSwitchIp())) {
+                ProgramConfig.getProxyIpAndPort(), ProgramConfig.getRateLimit(), ProgramConfig.getMinRateLimit(),
+                ProgramConfig.getMaxRateLimit(), ProgramConfig.isSwitchIp(), 1, ProgramConfig.isLocalDecrypt())) {
             logger.error("params init failed.");
             APIScheduler.stop();
             return;
@@ -45,14 +47,20 @@ public class Decrypter {
             return;
         }
 
-        WebDriver driver = APIScheduler.getDriver();
-        JavascriptExecutor jsExecutor = APIScheduler.getJsExecutor();
+        // 只有一个会话, 一直由解码过程使用
+        APISession session = APIScheduler.leaseSession();
+        if (session == null) {
+            logger.error("lease api session failed.");
+            APIScheduler.stop();
+            return;
+        }
+        WebDriver driver = session.getDriver();
 
         // 测试能否执行
         String testData = "[{\"RunEval\":\"w61aXW/CgjAUw70tGB9KWMO2B8KIT8O+woQ9w54QYsOQTR4mS2VPw4bDvz5gw5jCtVAFBy1VTkLCrsKBw57Cj3PDjsKlNzRxwrlPwrfCu2PDgsOTwq98w7XClsOzw7TDsMOxw7rDjsKzw4/DtX7Dg8OXw5l2w4cCL8KgCMOGacOzAhFgw6bDscKGPAPCkcKZbFdMJcO0FgbCukNZGHQPworCocK5wqAOw77CkAPChMOBGsOCQARoAiXCoA50AjlQQgdgw7AiOGjDvDDCjFfCiyQ7HHPDvsKdw6QZX8KEMcOFUXExFsKcw47CpcKbwrhOZ8KffiPCqTBRFDDCr1rDsEnDjVkudMKvVMK3w4vCv38nECsfFx7DpMKVKxRRw7HDkyjCqMK6e3XDgMO1Yg3DnFrDn8KbwpjDpGzDusOnwqJUwoXCui1RC8KCwpbDg8KNw5wCZD9FwqXDm07DmD09w65xwrvDm8O3fwEDwqLChsKGwo4SP17CksKRM8K5w4hOw51nYj8Zwq1kNsKxQcKBHiPDp8KlwptXR8K3ScOhTcKUwpAGwrQtBlPDrAgTIsOaAmvCrMOYwoPDjsKfJyJQF8KbZgvCqggmG2gKDMKyPRNEw43Di3fDu2h1w63Ct8KxwrvDrETCmMKsw7Rxwr4fJVN2w5UNADXCisOmHMOtdUB2Ui/DjXnCuEXCjsKUwrnCpX8qJ8KkASd6wofDhAMewqnCrMOPw7zDsAc=\",\"Count\":\"0\"},]";
         boolean result;
         do {
-            result = ListContentCrawler.decryptData(jsExecutor, null, testData, "", "", false, true);
+            result = ListContentCrawler.decryptData(session, null, testData, "", "", false, true);
             if (!result) {
                 logger.warn("test execute javascript failed. refresh webdriver.");
                 driver.get(APIScheduler.cookiePageUrl);
@@ -60,18 +68,24 @@ public class Decrypter {
             }
         } while (!result);
 
-        int skip = 0;
+        ObjectId lastId = null;
 
         while (!Driver.isStop()) {
-            List<Document> docs = MongoUtils.getRawListData(skip, 10, 30);
-            if (docs == null || docs.isEmpty()) {
+            List<Document> docs = MongoUtils.getRawListData(lastId, 10, 30);
+            if (docs == null) {
+                // 查询失败, 等一会儿从上次的位置重试
+                try { Thread.sleep(10000); } catch (Exception e) { logger.warn("exception. {}", e.getMessage()); }
+                continue;
+            }
+            if (docs.isEmpty()) {
+                // 处理完一遍, 等一会儿从头开始 (失败的数据还在表中)
                 try { Thread.sleep(10000); } catch (Exception e) { logger.warn("exception. {}", e.getMessage()); }
-                skip = 0;
+                lastId = null;
                 continue;
             }
 
             logger.info("get rawlistdata count {}", docs.size());
-            skip += docs.size();
+            lastId = docs.get(docs.size() - 1).getObjectId("_id");
 
             for (Document doc : docs) {
                 String data = doc.getString("data");
@@ -82,7 +96,7 @@ public class Decrypter {
 
                 // 执行成功则从mongodb中将该条数据删除
                 if (data.equalsIgnoreCase("\"remind key\"") || data.equalsIgnoreCase("\"remind\"") ||
-                        ListContentCrawler.decryptData(jsExecutor, mqEngine, data, param, index, false, true)) {
+                        ListContentCrawler.decryptData(session, mqEngine, data, param, index, false, true)) {
                     logger.info("invalid docId or id {} get succeed, delete it.", id);
                     MongoUtils.deleteRawListData(id);
                     taskCounter.remove(id.toString());
@@ -103,5 +117,6 @@ public class Decrypter {
         // 等待线程退出
         Driver.waitStop();
         mqEngine.stop();
+        MongoUtils.stop();
     }
 }
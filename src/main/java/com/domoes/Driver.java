@@ -1,15 +1,22 @@
 package com.domoes;
 
 import com.domoes.APIs.APIScheduler;
+import com.domoes.APIs.CrawlFrontier;
+import com.domoes.APIs.ListContentPipeline;
+import com.domoes.APIs.ProxyPool;
+import com.domoes.APIs.TokenManager;
 import com.domoes.kafka.KafkaMQ;
 import com.domoes.kafka.MQListener;
 import com.domoes.kafka.TaskMQ;
 import com.domoes.mongodb.MongoUtils;
+import com.domoes.pages.NetworkCapture;
 import com.domoes.utils.*;
-import org.openqa.selenium.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Created by liufei on 2019/5/31.
  * 入口
@@ -28,13 +35,21 @@ public class Driver {
             logger.error("init mongodb failed");
             return;
         }
+        MongoUtils.initFinishedFilter(ProgramConfig.getFinishedFilterFile());
+        CrawlFrontier.init(ProgramConfig.getFrontierRecentYears(), ProgramConfig.getFrontierRecentDays(), ProgramConfig.getFrontierStaleDays());
 
+        ProxyPool.init(ProgramConfig.getProxySwitchUrl(), ProgramConfig.getProxyMinScore());
         if (!APIScheduler.init(ProgramConfig.isUseProxy(), ProgramConfig.isUseRemoteDriver(), ProgramConfig.isHeadless(),
-                ProgramConfig.getProxyIpAndPort(), ProgramConfig.getRateLimit(), ProgramConfig.isSwitchIp())) {
+                ProgramConfig.getProxyIpAndPort(), ProgramConfig.getRateLimit(), ProgramConfig.getMinRateLimit(),
+                ProgramConfig.getMaxRateLimit(), ProgramConfig.isSwitchIp(),
+                ProgramConfig.getSessionCount(), ProgramConfig.isLocalDecrypt())) {
             logger.error("params init failed.");
             //APIScheduler.stop();
             return;
         }
+        NetworkCapture.setEnabled(ProgramConfig.isCdpCapture());
+        ListContentPipeline.init(ProgramConfig.getListInFlight(), ProgramConfig.getSessionCount());
+        TokenManager.start(ProgramConfig.getTokenMaxAgeSeconds(), ProgramConfig.getTokenMaxFailureRate());
 
         // 获取消息队列里的任务
         TaskMQ mqEngine = createTaskMQ(true, ProgramConfig.isIgnoreListTask(), ProgramConfig.isIgnoreApiTask());
@@ -46,6 +61,9 @@ public class Driver {
         // 等待线程退出
         waitStop();
         mqEngine.stop();
+        ListContentPipeline.stop();
+        TokenManager.stop();
+        MongoUtils.stop();
     }
 
     static void waitStop() {
@@ -69,20 +87,25 @@ public class Driver {
         return stop;
     }
 
-    public static WebDriver getDriver() {
-        return APIScheduler.getDriver();
-    }
-
     // 改为只支持kafka消息队列 (阿里的消息队列太贵, 暂时不可能用到)
     // needConsumer表示是否需要消费kafka消息, 如果不需要则只会创建producer
-    // ignoreListTask 表示是否忽略掉List类型的任务 (当没有consumer时该参数无意义)
+    // ignoreListTask 表示是否忽略掉List类型的任务 (当没有consumer时该参数无意义), 忽略的任务不会订阅
     static TaskMQ createTaskMQ(boolean needConsumer, boolean ignoreListTask, boolean ignoreApiTask) {
         KafkaMQ engine = new KafkaMQ();
         MQListener listener = null;
-        if (needConsumer)
+        Map<String, Integer> workerCounts = new HashMap<>();
+        if (needConsumer) {
             listener = new MQListener(engine, ignoreListTask, ignoreApiTask);
+            for (String tag : new String[] {TaskMQ.TAG_API_LIST, TaskMQ.TAG_API_DOC, TaskMQ.TAG_LIST, TaskMQ.TAG_DOC, TaskMQ.TAG_NORMAL_SEARCH}) {
+                if (listener.canConsume(tag))
+                    workerCounts.put(tag, ProgramConfig.getWorkerCount(tag));
+            }
+            workerCounts.put(KafkaMQ.OTHER_TAGS, ProgramConfig.getWorkerCount(KafkaMQ.OTHER_TAGS));
+        }
 
-        if (!engine.init(ProgramConfig.getKafkaServerAddr(), ProgramConfig.getKafkaTopic(), listener)) {
+        engine.setDocLagLimit(ProgramConfig.getDocLagLimit());
+        if (!engine.init(ProgramConfig.getKafkaServerAddr(), ProgramConfig.getKafkaTopic(), ProgramConfig.isTopicPerTag(),
+                ProgramConfig.getProducerProps(), listener, workerCounts)) {
             logger.error("KafkaMQ initialized failed");
             return null;
         }
@@ -1,7 +1,5 @@
 package com.domoes;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
 import com.domoes.kafka.*;
 import com.domoes.utils.ProgramConfig;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
@@ -9,13 +7,11 @@ import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
-import org.apache.kafka.clients.producer.ProducerConfig;
-import org.apache.kafka.clients.producer.ProducerRecord;
-import org.apache.kafka.common.serialization.IntegerSerializer;
-import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.Properties;
@@ -23,10 +19,9 @@ import java.util.Properties;
 class CopyKafkaMQ implements TaskMQ {
     private static final Logger logger = LoggerFactory.getLogger(com.domoes.kafka.KafkaMQ.class);
 
-    private KafkaProducer<Integer, String> producer;
-    private KafkaConsumer<Integer, String> consumer;
+    private KafkaProducer<byte[], byte[]> producer;
+    private KafkaConsumer<byte[], byte[]> consumer;
     private String kafkaTopic;
-    private Integer messageKey = 1;
 
     private Thread consumerThread = null;
     private long consumerThreadWaitMils = 5000;
@@ -34,16 +29,11 @@ class CopyKafkaMQ implements TaskMQ {
     boolean init(String kafkaServerAddr, String kafkaTopic, boolean needConsumer, TaskMQ writeMQ) {
         this.kafkaTopic = kafkaTopic;
 
-        Properties props = new Properties();
-        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaServerAddr);
-        props.put(ProducerConfig.CLIENT_ID_CONFIG, "producer");
-        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, IntegerSerializer.class.getName());
-        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        producer = new KafkaProducer<>(props);
+        producer = KafkaMQ.createProducer(kafkaServerAddr, ProgramConfig.getProducerProps());
 
         // consumer
         if (needConsumer) {
-            props = new Properties();
+            Properties props = new Properties();
             props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaServerAddr);
             props.put(ConsumerConfig.GROUP_ID_CONFIG, "consumer");
             props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "true");
@@ -51,8 +41,8 @@ class CopyKafkaMQ implements TaskMQ {
             props.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, "30000");
             props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "25");
             props.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, "1500000");       // 平均每条数据最大处理时间为60秒
-            props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.IntegerDeserializer");
-            props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringDeserializer");
+            props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+            props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
             consumer = new KafkaConsumer<>(props);
 
             // 启动一个工作线程用于拉消息
@@ -60,21 +50,17 @@ class CopyKafkaMQ implements TaskMQ {
                 consumer.subscribe(Collections.singletonList(kafkaTopic));
 
                 while (!Driver.isStop()) {
-                    ConsumerRecords<Integer, String> records = consumer.poll(Duration.ofMillis(consumerThreadWaitMils));
+                    ConsumerRecords<byte[], byte[]> records = consumer.poll(Duration.ofMillis(consumerThreadWaitMils));
                     logger.info("received kafka message, count={}", records.count());
 
-                    for (ConsumerRecord<Integer, String> record : records) {
-                        logger.info("received kafka message {}, {} at partition {} offset {}", record.key(), record.value(), record.partition(), record.offset());
-
-                        try {
-                            JSONObject tagValue = JSON.parseObject(record.value());
-                            String key = tagValue.getString("tag");
-                            String value = tagValue.getString("value");
-                            logger.info("key={}, value={}", key, value);
-                            writeMQ.pushMessage(value.getBytes(), key);
-                        } catch (Exception e) {
-                            logger.warn("exception at consumer thread. {} - {}", record.value(), e.getMessage());
-                        }
+                    for (ConsumerRecord<byte[], byte[]> record : records) {
+                        // 旧格式的消息复制后也转为新格式
+                        TaskEnvelope envelope = TaskEnvelope.decode(record);
+                        if (envelope == null)
+                            continue;
+
+                        logger.info("received kafka message {}, {} at partition {} offset {}", envelope.getTag(), envelope.getValue(), record.partition(), record.offset());
+                        writeMQ.pushMessage(envelope.getValue().getBytes(StandardCharsets.UTF_8), envelope.getTag());
                     }
                 }
             });
@@ -86,18 +72,7 @@ class CopyKafkaMQ implements TaskMQ {
 
     @Override
     public void pushMessage(byte[] message, String tag) {
-        // 将tag和message封装为一个json串
-        POJOTagValue messageJson = new POJOTagValue();
-        messageJson.setTag(tag);
-        messageJson.setValue(new String(message));
-
-        ProducerRecord<Integer, String> msg = new ProducerRecord<>(
-                kafkaTopic,
-                messageKey++,
-                JSON.toJSONString(messageJson)
-        );
-
-        producer.send(msg, ((recordMetadata, e) -> {
+        producer.send(TaskEnvelope.encode(kafkaTopic, tag, message), ((recordMetadata, e) -> {
             if (recordMetadata != null)
                 logger.info("message send success, partition {}, offset {}", recordMetadata.partition(), recordMetadata.offset());
             else if (e != null)
@@ -113,6 +88,7 @@ class CopyKafkaMQ implements TaskMQ {
         } catch (Exception e) {
             logger.error("exception in waiting consumer thread quit. {}", e.getMessage());
         }
+        producer.close(Duration.ofSeconds(10));
     }
 }
 
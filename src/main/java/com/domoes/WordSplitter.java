@@ -43,19 +43,26 @@ public class WordSplitter {
             return;
         }
 
-        int skip = 0;
+        ObjectId lastId = null;
+        int failedCount = 0;
 
         while (!Driver.isStop()) {
-            List<Document> docs = MongoUtils.getFinishedWenshuList(skip, 10, 30);
-            if (docs == null || docs.isEmpty()) {
-                //try { Thread.sleep(10000); } catch (Exception e) { logger.warn("exception at sleep. {}", e.getMessage()); }
-                //skip = 0;
-                //continue;
-                break;
+            List<Document> docs = MongoUtils.getFinishedWenshuList(lastId, 10, 30);
+            if (docs == null) {
+                // 查询失败, 从上次的位置重试
+                if (++failedCount > 10) {
+                    logger.error("get finished wenshu failed too many times, last id {}", lastId);
+                    break;
+                }
+                try { Thread.sleep(10000); } catch (Exception e) { logger.warn("exception at sleep. {}", e.getMessage()); }
+                continue;
             }
+            if (docs.isEmpty())
+                break;
 
             logger.info("get finished wenshu count {}", docs.size());
-            skip += docs.size();
+            failedCount = 0;
+            lastId = docs.get(docs.size() - 1).getObjectId("_id");
 
             for (Document doc : docs) {
                 String content = doc.getString("content");
@@ -1,193 +1,435 @@
 package com.domoes.kafka;
 
-import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONObject;
 import com.domoes.Driver;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.AdminClientConfig;
 import org.apache.kafka.clients.consumer.*;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
-import org.apache.kafka.common.serialization.IntegerSerializer;
-import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
-import java.util.Collections;
-import java.util.Properties;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by liufei on 2019/6/6.
  * kafka消息队列操作封装
+ *   topicPerTag时每种任务一个topic (kafkaTopic.tag) 和一个consumer group, 节点只订阅自己能执行的任务
+ *   同时消费旧的kafkaTopic, 把升级前留下的消息处理完或转发到对应的topic
+ *   失败的任务放到延时topic中, 由RetryScheduler到期后转发回任务topic
  */
 public class KafkaMQ implements TaskMQ {
     private static final Logger logger = LoggerFactory.getLogger(KafkaMQ.class);
 
-    private KafkaProducer<Integer, String> producer;
-    private KafkaConsumer<Integer, String> consumer;
+    private KafkaProducer<byte[], byte[]> producer;
+    private String kafkaServerAddr;
     private String kafkaTopic;
-    private Integer messageKey = 1;
+    private boolean topicPerTag;
 
-    private Thread workerThread = null;
-    private Thread consumerThread = null;
+    // 不在workerCounts中的tag共用一个队列
+    public static final String OTHER_TAGS = "TagOthers";
+    // 每个tag的任务队列长度, 队列满时consumer线程会等待
+    private static final int taskQueueCapacity = 50;
+
+    private Map<String, BlockingQueue<ReceivedTask>> taskQueues = new HashMap<>();
+    private List<Thread> workerThreads = new ArrayList<>();
+    private List<TopicConsumer> consumers = new ArrayList<>();
+    // 消息处理进度, 每个topic只由一个consumer消费 (初始化后只读)
+    private Map<String, OffsetTracker> offsetTrackers = new HashMap<>();
     private long consumerThreadWaitMils = 5000;
 
+    // 列表任务的优先级低于文书任务, 文书任务积压超过docLagLimit时暂停拉取列表任务, 降到一半以下时恢复
+    private static final String[] lowPriorityTags = {TAG_API_LIST, TAG_LIST};
+    // 积压数量按所有文书任务计算 (API方式和网页方式)
+    private static final String[] docTags = {TAG_API_DOC, TAG_DOC};
+    private static final long lagCheckMils = 10000;
+    private long docLagLimit = 0;
+    private AdminClient adminClient = null;
+
+    private RetryScheduler retryScheduler = null;
+
     /**
      * 初始化Kafka producer和consumer
+     * @param topicPerTag 每种任务使用单独的topic和consumer group, 否则所有任务共用kafkaTopic
+     * @param producerProps producer的批量发送和压缩配置, 覆盖默认值
      * @param consumerListener 如果consumerListener为null, 将不会创建consumer
+     * @param workerCounts 需要消费的tag及其工作线程数量, 其它tag使用OTHER_TAGS对应的数量
      */
-    public boolean init(String kafkaServerAddr, String kafkaTopic, MQListener consumerListener) {
+    public boolean init(String kafkaServerAddr, String kafkaTopic, boolean topicPerTag, Properties producerProps,
+                        MQListener consumerListener, Map<String, Integer> workerCounts) {
+        this.kafkaServerAddr = kafkaServerAddr;
         this.kafkaTopic = kafkaTopic;
+        this.topicPerTag = topicPerTag;
+
+        producer = createProducer(kafkaServerAddr, producerProps);
+
+        // consumer
+        if (consumerListener != null) {
+            // 每个tag一个任务队列和一组工作线程, 不需要浏览器的任务不会排在浏览器任务后面
+            Map<String, Integer> counts = new HashMap<>(workerCounts);
+            counts.putIfAbsent(OTHER_TAGS, 1);
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                BlockingQueue<ReceivedTask> queue = new LinkedBlockingQueue<>(taskQueueCapacity);
+                taskQueues.put(entry.getKey(), queue);
+
+                int count = Math.max(1, entry.getValue());
+                logger.info("tag {} worker count {}", entry.getKey(), count);
+                for (int i = 0; i < count; i++) {
+                    Thread thread = new Thread(() -> workerLoop(queue, consumerListener), "worker-" + entry.getKey() + "-" + i);
+                    thread.start();
+                    workerThreads.add(thread);
+                }
+            }
+
+            // 旧topic, topicPerTag时只用于处理升级前的消息
+            consumers.add(new TopicConsumer(kafkaTopic, "consumer", false));
+            if (topicPerTag) {
+                List<String> low = Arrays.asList(lowPriorityTags);
+                for (String tag : workerCounts.keySet()) {
+                    if (!tag.equals(OTHER_TAGS))
+                        consumers.add(new TopicConsumer(topicFor(tag), groupFor(tag), docLagLimit > 0 && low.contains(tag)));
+                }
 
+                if (docLagLimit > 0) {
+                    Properties props = new Properties();
+                    props.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaServerAddr);
+                    adminClient = AdminClient.create(props);
+                }
+            }
+
+            for (TopicConsumer consumer : consumers)
+                offsetTrackers.put(consumer.topic, consumer.offsetTracker);
+            for (TopicConsumer consumer : consumers)
+                consumer.start();
+
+            retryScheduler = new RetryScheduler(kafkaServerAddr, kafkaTopic, producer, this::topicFor);
+            retryScheduler.start();
+        }
+
+        return true;
+    }
+
+    // 文书任务积压超过limit时暂停拉取列表任务, 0表示不限制 (需要在init之前设置)
+    public void setDocLagLimit(long limit) {
+        this.docLagLimit = limit;
+    }
+
+    // 创建producer, 任务消息很小, 等待一小段时间合并为批次并压缩后再发送
+    public static KafkaProducer<byte[], byte[]> createProducer(String kafkaServerAddr, Properties producerProps) {
         Properties props = new Properties();
         props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaServerAddr);
         props.put(ProducerConfig.CLIENT_ID_CONFIG, "producer");
-        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, IntegerSerializer.class.getName());
-        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        producer = new KafkaProducer<>(props);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.put(ProducerConfig.LINGER_MS_CONFIG, "20");
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, "65536");
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        if (producerProps != null)
+            props.putAll(producerProps);
+        return new KafkaProducer<>(props);
+    }
 
-        // consumer
-        if (consumerListener != null) {
-            props = new Properties();
+    private String topicFor(String tag) {
+        return topicPerTag ? kafkaTopic + "." + tag : kafkaTopic;
+    }
+
+    private String groupFor(String tag) {
+        return "consumer." + tag;
+    }
+
+    // 收到的消息和解析后的任务, 只在拉取线程中解析一次, 格式不对时envelope为null
+    private static class ReceivedTask {
+        private final ConsumerRecord<byte[], byte[]> record;
+        private final TaskEnvelope envelope;
+
+        ReceivedTask(ConsumerRecord<byte[], byte[]> record) {
+            this.record = record;
+            this.envelope = TaskEnvelope.decode(record);
+        }
+    }
+
+    // 一个topic的consumer和拉取线程
+    // KafkaConsumer不是线程安全的, 所有consumer操作都在这个线程中
+    private class TopicConsumer {
+        private final String topic;
+        private final boolean lowPriority;
+        private final KafkaConsumer<byte[], byte[]> consumer;
+        private final Thread thread;
+
+        // 消息处理进度, 只提交连续处理完成的位置
+        private final OffsetTracker offsetTracker = new OffsetTracker();
+        // 任务队列已满, 暂时放不进去的消息
+        private final Deque<ReceivedTask> backlog = new ArrayDeque<>();
+
+        private boolean holding = false;        // 因文书任务积压而暂停
+        private long lastLagCheck = 0;
+
+        TopicConsumer(String topic, String group, boolean lowPriority) {
+            this.topic = topic;
+            this.lowPriority = lowPriority;
+
+            Properties props = new Properties();
             props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaServerAddr);
-            props.put(ConsumerConfig.GROUP_ID_CONFIG, "consumer");
-            props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "true");
-            props.put(ConsumerConfig.AUTO_COMMIT_INTERVAL_MS_CONFIG, "1000");
+            props.put(ConsumerConfig.GROUP_ID_CONFIG, group);
+            props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");          // 处理完成后手动提交
             props.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, "10000");
-            props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "10");
-            props.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, "600000");       // 平均每条数据最大处理时间为60秒
-            props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.IntegerDeserializer");
-            props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringDeserializer");
+            props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "100");
+            props.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, "600000");       // 队列满时会暂停partition, poll不会被任务处理阻塞
+            props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+            props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
             consumer = new KafkaConsumer<>(props);
 
-            // 用于暂存任务
-            Queue<ConsumerRecord<Integer, String>> taskQueue = new ConcurrentLinkedDeque<>();
-
-            // 启动一个工作线程用于处理消息
-            workerThread = new Thread(() -> {
-                while (!Driver.isStop()) {
-                    ConsumerRecord<Integer, String> record = taskQueue.poll();
-                    if (record == null) {
-                        logger.info("task queue is empty.");
-                        try { Thread.sleep(1000); } catch (Exception e) { logger.info("exception at sleep. {}", e.getMessage()); }
-                        continue;
-                    }
-
-                    logger.info("received kafka message {}, {} at partition {} offset {}", record.key(), record.value(), record.partition(), record.offset());
-
-                    try {
-                        JSONObject tagValue = JSON.parseObject(record.value());
-                        String key = tagValue.getString("tag");
-                        String value = tagValue.getString("value");
-                        logger.info("key={}, value={}", key, value);
-                        consumerListener.consume(key, value);
-                    } catch (Exception e) {
-                        logger.warn("exception at worker thread. {} - {}", record.value(), e.getMessage());
-
-                        // 如果异常是invalid session id, 只能退出重启
-                        if (e.getMessage().startsWith("invalid session id")) {
-                            Driver.stop();
-                            Runtime.getRuntime().exit(0);
-                        }
-                    }
+            thread = new Thread(this::consumerLoop, "consumer-" + topic);
+        }
+
+        void start() {
+            logger.info("consume topic {}{}", topic, lowPriority ? " (low priority)" : "");
+            thread.start();
+        }
+
+        void join(long millis) throws InterruptedException {
+            thread.join(millis);
+        }
+
+        // 拉取消息并分发到任务队列, 提交已处理完成的位置
+        private void consumerLoop() {
+            consumer.subscribe(Collections.singletonList(topic), new ConsumerRebalanceListener() {
+                @Override
+                public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                    // 提交已完成的位置, 未完成的消息会由新的consumer重新消费
+                    commit(true);
+                    offsetTracker.remove(partitions);
+                    backlog.removeIf(task -> partitions.contains(new TopicPartition(task.record.topic(), task.record.partition())));
                 }
-            });
-            workerThread.start();
-
-            // 启动一个工作线程用于拉消息
-            consumerThread = new Thread(() -> {
-                consumer.subscribe(Collections.singletonList(kafkaTopic));
-
-                while (!Driver.isStop()) {
-                    // 临时处理 ------------------------------------
-//                Set<TopicPartition> assigns = consumer.assignment();
-//                Map<TopicPartition, Long> offsets = consumer.endOffsets(assigns);
-//                for (TopicPartition p : assigns) {
-//                    long pos = consumer.position(p);
-//                    long end = offsets.get(p);
-//                    logger.info("partition {} position: {}, end: {}, lag: {}", p.partition(), pos, end, end - pos);
-//                    // 跳过一直没更新的老数据
-//                    if (p.partition() > 0 && pos < 20000) {
-//                        consumer.seek(p, pos + (end - pos) / 3);
-//                        consumer.commitAsync();
-//                    }
-//                }
-                    // 临时处理 ------------------------------------
-
-                    long time = System.currentTimeMillis();
-
-                    ConsumerRecords<Integer, String> records = consumer.poll(Duration.ofMillis(consumerThreadWaitMils));
-                    logger.info("received kafka message, count={}", records.count());
-
-                    // 这里不处理任务, 只加到队列中
-                    for (ConsumerRecord<Integer, String> record : records) {
-                        taskQueue.add(record);
-                    }
-
-                    // 等待消息处理完
-                    while (true) {
-                        // 如果任务已处理完, 补充新任务
-                        if (taskQueue.size() < 3) {
-                            logger.info("task queue size is {}, retry get new tasks.", taskQueue.size());
-                            break;
-                        }
-
-                        // 如果处理的时间太长, 也补充消息, 因为kafka可能要超时
-                        long diff = System.currentTimeMillis() - time;
-                        if (diff > 500000) {
-                            // 如果累积了太多消息就不再再补了, 让kafka超时
-                            if (taskQueue.size() > 100) {
-                                logger.warn("too many tasks in queue, wait for processing. kafka may timeouted. {}", taskQueue.size());
-                                try { Thread.sleep(10000); } catch (Exception e) { logger.info("exception at sleep. {}", e.getMessage()); }
-                                continue;
-                            }
-
-                            logger.info("elapsed time {} too long, current task queue size is {}. retry get new tasks", diff, taskQueue.size());
-                            break;
-                        }
-
-                        try { Thread.sleep(1000); } catch (Exception e) { logger.info("exception at sleep. {}", e.getMessage()); }
-                    }
+
+                @Override
+                public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                    logger.info("partitions assigned {}", partitions);
                 }
             });
-            consumerThread.start();
+
+            while (!Driver.isStop()) {
+                // 队列满或文书任务积压时暂停所有partition, poll只用于保持心跳
+                dispatchBacklog();
+                if (!backlog.isEmpty() || isHolding()) {
+                    if (consumer.paused().isEmpty())
+                        logger.info("pause topic {}. backlog {}, holding {}", topic, backlog.size(), holding);
+                    consumer.pause(consumer.assignment());
+                } else if (!consumer.paused().isEmpty()) {
+                    logger.info("resume topic {}.", topic);
+                    consumer.resume(consumer.paused());
+                }
+
+                ConsumerRecords<byte[], byte[]> records = consumer.poll(Duration.ofMillis(1000));
+                if (!records.isEmpty())
+                    logger.info("received kafka message from {}, count={}", topic, records.count());
+
+                // 这里不处理任务, 只按tag加到队列中
+                for (ConsumerRecord<byte[], byte[]> record : records) {
+                    offsetTracker.add(new TopicPartition(record.topic(), record.partition()), record.offset());
+                    backlog.add(new ReceivedTask(record));
+                }
+                dispatchBacklog();
+
+                commit(false);
+            }
+
+            commit(true);
+            consumer.close();
         }
 
-        return true;
+        // 把积压的消息放到任务队列中, 队列满时留在backlog里 (保持同一个partition中消息的顺序)
+        private void dispatchBacklog() {
+            while (!backlog.isEmpty()) {
+                if (!queueFor(backlog.peek()).offer(backlog.peek()))
+                    break;
+                backlog.poll();
+            }
+        }
+
+        // 提交连续处理完成的位置
+        private void commit(boolean sync) {
+            Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.commitable();
+            if (offsets.isEmpty())
+                return;
+
+            if (sync) {
+                try {
+                    consumer.commitSync(offsets);
+                    offsetTracker.committed(offsets);
+                } catch (Exception e) {
+                    logger.warn("exception at commit offsets {}. {}", offsets, e.getMessage());
+                }
+            } else {
+                consumer.commitAsync(offsets, (committed, e) -> {
+                    if (e == null)
+                        offsetTracker.committed(committed);
+                    else
+                        logger.warn("commit offsets failed {}. {}", committed, e.getMessage());
+                });
+            }
+        }
+
+        // 低优先级的topic定期检查文书任务的积压数量
+        private boolean isHolding() {
+            if (!lowPriority || System.currentTimeMillis() - lastLagCheck < lagCheckMils)
+                return holding;
+            lastLagCheck = System.currentTimeMillis();
+
+            long lag = docLag();
+            if (lag < 0)
+                return holding;
+
+            if (!holding && lag > docLagLimit) {
+                logger.info("doc lag {} exceeds {}, hold topic {}.", lag, docLagLimit, topic);
+                holding = true;
+            } else if (holding && lag < docLagLimit / 2) {
+                logger.info("doc lag {}, release topic {}.", lag, topic);
+                holding = false;
+            }
+            return holding;
+        }
+
+        // 所有文书任务group在所有partition上未处理的消息数量之和, 失败时返回-1
+        private long docLag() {
+            long lag = 0;
+            for (String tag : docTags) {
+                long tagLag = docLag(tag);
+                if (tagLag < 0)
+                    return -1;
+                lag += tagLag;
+            }
+            return lag;
+        }
+
+        private long docLag(String tag) {
+            try {
+                List<TopicPartition> partitions = new ArrayList<>();
+                List<PartitionInfo> infos = consumer.partitionsFor(topicFor(tag));
+                if (infos == null)
+                    return 0;
+                for (PartitionInfo info : infos)
+                    partitions.add(new TopicPartition(info.topic(), info.partition()));
+
+                Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+                Map<TopicPartition, OffsetAndMetadata> committed = adminClient.listConsumerGroupOffsets(groupFor(tag))
+                        .partitionsToOffsetAndMetadata().get(lagCheckMils, TimeUnit.MILLISECONDS);
+
+                // 还没有提交过的partition不计算
+                long lag = 0;
+                for (Map.Entry<TopicPartition, Long> entry : endOffsets.entrySet()) {
+                    OffsetAndMetadata offset = committed.get(entry.getKey());
+                    if (offset != null)
+                        lag += Math.max(0, entry.getValue() - offset.offset());
+                }
+                return lag;
+            } catch (Exception e) {
+                logger.warn("exception at get doc lag of {}. {}", tag, e.getMessage());
+                return -1;
+            }
+        }
+    }
+
+    // 根据消息中的tag找到对应的任务队列
+    private BlockingQueue<ReceivedTask> queueFor(ReceivedTask task) {
+        String tag = task.envelope != null ? task.envelope.getTag() : null;
+
+        BlockingQueue<ReceivedTask> queue = tag != null ? taskQueues.get(tag) : null;
+        return queue != null ? queue : taskQueues.get(OTHER_TAGS);
+    }
+
+    // 工作线程, 等待并处理队列中的任务
+    private void workerLoop(BlockingQueue<ReceivedTask> queue, MQListener consumerListener) {
+        while (!Driver.isStop()) {
+            ReceivedTask task;
+            try {
+                task = queue.poll(consumerThreadWaitMils, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                logger.info("worker thread interrupted. {}", e.getMessage());
+                return;
+            }
+            if (task == null)
+                continue;
+            ConsumerRecord<byte[], byte[]> record = task.record;
+
+            // 任务完成 (成功, 或者失败后已重新放回队列) 后才能提交该消息的位置
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            OffsetTracker offsetTracker = offsetTrackers.get(record.topic());
+            Runnable done = () -> offsetTracker.complete(partition, record.offset());
+            TaskEnvelope envelope = task.envelope;
+            if (envelope == null) {
+                done.run();
+                continue;
+            }
+
+            logger.info("received kafka message {}, {} at {}-{} offset {}", envelope.getTag(), envelope.getValue(), record.topic(), record.partition(), record.offset());
+            try {
+                consumerListener.consume(envelope.getTag(), envelope.getValue(), envelope.getAttempts(), done);
+            } catch (Exception e) {
+                logger.warn("exception at worker thread. {} - {}", envelope.getValue(), e.getMessage());
+                done.run();
+
+                // 如果异常是invalid session id, 只能退出重启
+                if (e.getMessage() != null && e.getMessage().startsWith("invalid session id")) {
+                    Driver.stop();
+                    Runtime.getRuntime().exit(0);
+                }
+            }
+        }
     }
 
     @Override
     public void pushMessage(byte[] message, String tag) {
-        // 将tag和message封装为一个json串
-        POJOTagValue messageJson = new POJOTagValue();
-        messageJson.setTag(tag);
-        messageJson.setValue(new String(message));
-
-        ProducerRecord<Integer, String> msg = new ProducerRecord<>(
-                kafkaTopic,
-                messageKey++,
-                JSON.toJSONString(messageJson)
-        );
-
-        producer.send(msg, ((recordMetadata, e) -> {
-            if (recordMetadata != null)
-                logger.info("message send success, partition {}, offset {}", recordMetadata.partition(), recordMetadata.offset());
-            else if (e != null)
-                logger.warn("message send failed, {}", e.getMessage());
-        }));
+        send(TaskEnvelope.encode(topicFor(tag), tag, message), tag);
+    }
+
+    // 放到不小于delayMillis的延时topic中
+    @Override
+    public void retryMessage(byte[] message, String tag, int attempts, long delayMillis) {
+        long due = System.currentTimeMillis() + delayMillis;
+        send(TaskEnvelope.encode(RetryScheduler.topicFor(kafkaTopic, delayMillis), tag, message, attempts, due), tag);
+    }
+
+    private void send(ProducerRecord<byte[], byte[]> record, String tag) {
+        try {
+            producer.send(record, ((recordMetadata, e) -> {
+                if (recordMetadata != null)
+                    logger.info("message send success, {}-{}, offset {}", recordMetadata.topic(), recordMetadata.partition(), recordMetadata.offset());
+                else if (e != null)
+                    logger.warn("message send failed, {}", e.getMessage());
+            }));
+        } catch (Exception e) {
+            // producer已关闭
+            logger.warn("exception at send message {}. {}", tag, e.getMessage());
+        }
     }
 
     @Override
     public void stop() {
         try {
-            if (consumerThread != null)
-                consumerThread.wait(consumerThreadWaitMils * 2);
-            if (workerThread != null)
-                workerThread.wait(consumerThreadWaitMils * 2);
+            for (TopicConsumer consumer : consumers)
+                consumer.join(consumerThreadWaitMils * 2);
+            if (retryScheduler != null)
+                retryScheduler.join(consumerThreadWaitMils * 2);
+            for (Thread thread : workerThreads)
+                thread.join(consumerThreadWaitMils * 2);
         } catch (Exception e) {
             logger.error("exception in waiting consumer thread quit. {}", e.getMessage());
         }
+
+        if (adminClient != null)
+            adminClient.close(Duration.ofSeconds(10));
+
+        // 发送还在批次中等待的消息
+        producer.close(Duration.ofSeconds(10));
     }
 }
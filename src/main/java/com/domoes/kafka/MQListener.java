@@ -19,13 +19,48 @@ public class MQListener {
         this.ignoreApiTask = ignoreApiTask;
     }
 
+    // 本节点是否执行该类型的任务, topicPerTag时只订阅这些任务的topic
+    public boolean canConsume(String tag) {
+        switch (tag) {
+            case TaskMQ.TAG_LIST:
+                return !ignoreListTask;
+            case TaskMQ.TAG_API_LIST:
+                return !ignoreListTask && !ignoreApiTask;
+            case TaskMQ.TAG_API_DOC:
+                return !ignoreApiTask;
+            default:
+                return true;
+        }
+    }
+
     protected void consume(String tag, String body) {
+        consume(tag, body, 0, () -> {});
+    }
+
+    // attempts为该任务已经重试的次数
+    // done在任务处理完成后调用 (API列表任务在流水线中异步完成)
+    protected void consume(String tag, String body, int attempts, Runnable done) {
+        // 异步处理的任务由MessageProcessor负责调用done
+        if (tag.equals(TaskMQ.TAG_API_LIST) && !ignoreListTask && !ignoreApiTask) {
+            MessageProcessor.apiListMessage(mq, body, attempts, done);
+            return;
+        }
+
+        try {
+            consumeSync(tag, body, attempts);
+        } finally {
+            done.run();
+        }
+    }
+
+    // 不执行的任务放回队列: topicPerTag时只会是旧topic中的消息, 转发到对应的topic
+    private void consumeSync(String tag, String body, int attempts) {
         switch (tag) {
             case TaskMQ.TAG_LIST:
                 if (ignoreListTask)
                     mq.pushMessage(body.getBytes(), tag);
                 else
-                    MessageProcessor.listMessage(mq, body);
+                    MessageProcessor.listMessage(mq, body, attempts);
                 break;
 
             case TaskMQ.TAG_NORMAL_SEARCH:
@@ -33,21 +68,19 @@ public class MQListener {
                 break;
 
             case TaskMQ.TAG_DOC:
-                MessageProcessor.docMessage(mq, body);
+                MessageProcessor.docMessage(mq, body, attempts);
                 break;
 
             case TaskMQ.TAG_API_LIST:
-                if (ignoreListTask || ignoreApiTask)
-                    mq.pushMessage(body.getBytes(), tag);
-                else
-                    MessageProcessor.apiListMessage(mq, body);
+                // 不忽略时在consume中异步处理
+                mq.pushMessage(body.getBytes(), tag);
                 break;
 
             case TaskMQ.TAG_API_DOC:
                 if (ignoreApiTask)
                     mq.pushMessage(body.getBytes(), tag);
                 else
-                    MessageProcessor.apiDocMessage(mq, body);
+                    MessageProcessor.apiDocMessage(mq, body, attempts);
                 break;
 
             default:
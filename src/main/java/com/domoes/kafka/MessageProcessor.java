@@ -1,109 +1,203 @@
 package com.domoes.kafka;
 
 import com.domoes.APIs.APIScheduler;
+import com.domoes.APIs.APISession;
+import com.domoes.APIs.CanonicalParam;
+import com.domoes.APIs.CrawlFrontier;
 import com.domoes.APIs.DocContentCrawler;
 import com.domoes.APIs.ListContentCrawler;
-import com.domoes.Driver;
+import com.domoes.APIs.ListContentPipeline;
+import com.domoes.APIs.LoadResult;
 import com.domoes.pages.ContentPageCrawler;
 import com.domoes.pages.ListPageCrawler;
+import com.domoes.pages.NetworkCapture;
 import com.domoes.pages.NormalSearchCrawler;
-import com.domoes.utils.TaskCounter;
+import com.domoes.mongodb.MongoUtils;
 import com.domoes.utils.TaskPushUtil;
+import com.google.common.hash.Hashing;
+import org.openqa.selenium.WebDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
 /**
  * Created by liufei on 2019/6/9.
  * MessageQueue任务处理
+ *   失败的任务按失败原因延时重试, 重试次数随消息一起传递, 超过RetryPolicy.maxAttempts后放弃
+ *   列表任务的完成状态和所有任务的失败次数记录在mongodb中, 各节点共享 (重复的列表任务直接跳过)
  */
 class MessageProcessor {
     private static final Logger logger = LoggerFactory.getLogger(MessageProcessor.class);
-    private static TaskCounter taskCounter = new TaskCounter(100000, -1, 5);
 
     /**
      * 列表类消息
      * @param message 为list page url
      */
-    static void listMessage(TaskMQ mq, String message) {
-        try {
-            Driver.getDriver().navigate().to(message);
-        } catch (Exception e) {
-            logger.warn("exception at navigate to {}", message);
-            Driver.getDriver().get(message);
+    static void listMessage(TaskMQ mq, String message, int attempts) {
+        String key = taskKey(TaskMQ.TAG_LIST, message);
+        if (MongoUtils.taskGotFinished(key)) {
+            logger.info("list page task already finished. {}", message);
+            return;
         }
 
-        // 刷新一次列表页, 提高页面打开成功的概率
-        try { Thread.sleep(100); } catch (Exception e) { logger.warn("exception {}", e.getMessage()); }
-        Driver.getDriver().navigate().refresh();
-
-        if (!ListPageCrawler.load(mq)) {
-            logger.info("process list page task failed. add task again. {}", message);
-
-            if (taskCounter.incCount(message)) {
-                mq.pushMessage(message.getBytes(), TaskMQ.TAG_LIST);
-                return;
+        boolean succeed = false;
+        APISession session = APIScheduler.leaseSession();
+        if (session != null) {
+            try {
+                WebDriver driver = session.getDriver();
+                NetworkCapture capture = NetworkCapture.of(driver);
+                navigateAndRefresh(driver, message, capture);
+                // 优先使用抓到的接口数据, 没有抓到时再从页面抓取
+                succeed = (capture != null && ListPageCrawler.loadByCapture(mq, session, capture, message))
+                        || ListPageCrawler.load(mq, driver);
+            } finally {
+                APIScheduler.releaseSession(session);
             }
         }
 
-        // 如果成功或者重试次数超过限制, 删除缓存
-        taskCounter.remove(message);
+        if (succeed) {
+            MongoUtils.setTaskFinished(key, TaskMQ.TAG_LIST, finishedUntil(ListPageCrawler.urlParam(message)));
+        } else {
+            logger.info("process list page task failed. {}", message);
+            retry(mq, message, TaskMQ.TAG_LIST, attempts, LoadResult.FAILED);
+        }
     }
 
     // 普通搜索类消息
     // message为list page页上的搜索关键字串
     static void normalSearchMessage(TaskMQ mq, String message) {
-        NormalSearchCrawler.search(mq, message);
+        APISession session = APIScheduler.leaseSession();
+        if (session == null)
+            return;
+
+        try {
+            NormalSearchCrawler.search(mq, session.getDriver(), message);
+        } finally {
+            APIScheduler.releaseSession(session);
+        }
     }
 
     // 文书类消息
     // message为doc page url
-    static void docMessage(TaskMQ mq, String message) {
+    static void docMessage(TaskMQ mq, String message, int attempts) {
+        APISession session = APIScheduler.leaseSession();
+        if (session == null) {
+            retry(mq, message, TaskMQ.TAG_DOC, attempts, LoadResult.FAILED);
+            return;
+        }
+
+        try {
+            WebDriver driver = session.getDriver();
+            NetworkCapture capture = NetworkCapture.of(driver);
+            navigateAndRefresh(driver, message, capture);
+            if (capture == null || !ContentPageCrawler.loadByCapture(capture, message))
+                ContentPageCrawler.load(mq, driver, null);
+        } finally {
+            APIScheduler.releaseSession(session);
+        }
+    }
+
+    // 打开网页并刷新一次
+    // 启用CDP抓取时先清掉之前页面的数据
+    private static void navigateAndRefresh(WebDriver driver, String url, NetworkCapture capture) {
+        if (capture != null)
+            capture.clear();
+        APIScheduler.acquireRateLimit();
         try {
-            Driver.getDriver().navigate().to(message);
+            driver.navigate().to(url);
         } catch (Exception e) {
-            logger.warn("exception at navigate to {}", message);
-            Driver.getDriver().get(message);
+            logger.warn("exception at navigate to {}", url);
+            driver.get(url);
         }
 
-        // 刷新一次列表页, 提高页面打开成功的概率
+        // 刷新一次, 提高页面打开成功的概率
         try { Thread.sleep(100); } catch (Exception e) { logger.warn("exception {}", e.getMessage()); }
-        Driver.getDriver().navigate().refresh();
-
-        ContentPageCrawler.load(mq, Driver.getDriver(), null);
+        APIScheduler.acquireRateLimit();
+        driver.navigate().refresh();
     }
 
     // API列表类消息
     // message为json串 类似{"Param":"xxx", "Index":"1"}
-    static void apiListMessage(TaskMQ mq, String message) {
-        // 如果任务执行失败, 先检查重试次数是否超过了限制, 如果未超过限制则重新加回到队列
-        if (!ListContentCrawler.load(mq, message)) {
-            logger.info("process list api message failed. add task again. {}", message);
-
-            if (taskCounter.incCount(message)) {
-                mq.pushMessage(message.getBytes(), TaskMQ.TAG_API_LIST);
-                return;
-            }
+    // done在任务处理完成 (或重新放回队列) 后调用
+    static void apiListMessage(TaskMQ mq, String message, int attempts, Runnable done) {
+        if (MongoUtils.taskGotFinished(taskKey(TaskMQ.TAG_API_LIST, message))) {
+            logger.info("list api task already finished. {}", message);
+            done.run();
+            return;
+        }
+
+        // 启用流水线时异步处理, 处理完成后再检查结果
+        if (ListContentPipeline.isEnabled()) {
+            ListContentPipeline.submit(mq, message, result -> {
+                try {
+                    apiListFinished(mq, message, attempts, result);
+                } finally {
+                    done.run();
+                }
+            });
+            return;
         }
 
-        // 如果成功或者重试次数超过限制, 删除缓存
-        taskCounter.remove(message);
+        try {
+            apiListFinished(mq, message, attempts, ListContentCrawler.load(mq, message));
+        } finally {
+            done.run();
+        }
+    }
+
+    private static void apiListFinished(TaskMQ mq, String message, int attempts, LoadResult result) {
+        if (result.isSucceed()) {
+            MongoUtils.setTaskFinished(taskKey(TaskMQ.TAG_API_LIST, message), TaskMQ.TAG_API_LIST,
+                    finishedUntil(CanonicalParam.apiListParam(message)));
+        } else {
+            logger.info("process list api message failed, {}. {}", result, message);
+            retry(mq, message, TaskMQ.TAG_API_LIST, attempts, result);
+        }
     }
 
     // API文档类消息
     // message为docId
-    static void apiDocMessage(TaskMQ mq, String message) {
-        // 如果任务执行失败, 先检查重试次数是否超过了限制, 如果未超过限制则重新加回到队列
-        if (!DocContentCrawler.load(mq, message)) {
-            logger.info("process doc api message failed. add task again. {}", message);
-
-            // 失败的任务改成content page任务重新添加回去
+    static void apiDocMessage(TaskMQ mq, String message, int attempts) {
+        LoadResult result = DocContentCrawler.load(mq, message);
+        if (result.isSucceed())
+            return;
+        logger.info("process doc api message failed, {}. {}", result, message);
+
+        // 访问太频繁时等一会儿再用API重试, 其它失败改成content page任务重新添加回去
+        if (result != LoadResult.RATE_LIMITED || !retry(mq, message, TaskMQ.TAG_API_DOC, attempts, result))
             TaskPushUtil.pushContentPageForDoc(message, mq);
+    }
+
+    // 列表任务的完成状态只在frontier的重新抓取间隔内有效, 之后重新生成的同一任务需要再次抓取
+    private static Date finishedUntil(String param) {
+        return param != null ? CrawlFrontier.finishedUntil(param, System.currentTimeMillis()) : null;
+    }
+
+    // 检查重试次数是否超过了限制, 如果未超过限制则延时后重新加回到队列
+    // 重试次数取消息中的次数和所有节点上累计的失败次数中较大的一个 (重复的任务共用失败次数)
+    // 返回false表示已放弃该任务
+    private static boolean retry(TaskMQ mq, String message, String tag, int attempts, LoadResult result) {
+        int failures = Math.max(attempts + 1, MongoUtils.addTaskFailure(taskKey(tag, message), tag, result.name()));
+        if (failures > RetryPolicy.maxAttempts) {
+            logger.warn("task retried too many times, give up. {} {}", tag, message);
+            return false;
         }
 
-        // 如果成功或者重试次数超过限制, 删除缓存
-        taskCounter.remove(message);
+        long delay = RetryPolicy.delayMillis(result, failures - 1);
+        logger.info("retry task after {}ms, attempts {}. {}", delay, failures, message);
+        mq.retryMessage(message.getBytes(), tag, failures, delay);
+        return true;
+    }
 
-        // 重定向到列表页
-        Driver.getDriver().navigate().to(APIScheduler.cookiePageUrl);
+    // 任务指纹, API LIST任务按规范化的查询条件和页码计算, 编码和顺序不同的同一查询是同一个任务
+    private static String taskKey(String tag, String message) {
+        if (tag.equals(TaskMQ.TAG_API_LIST)) {
+            String key = CanonicalParam.apiListKey(message);
+            if (key != null)
+                return tag + ":" + key;
+        }
+        return tag + ":" + Hashing.murmur3_128().hashString(message, StandardCharsets.UTF_8).toString();
     }
 }
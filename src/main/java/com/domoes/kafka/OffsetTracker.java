@@ -0,0 +1,75 @@
+package com.domoes.kafka;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Created by liufei on 2019/7/26.
+ * 记录每个partition中消息的处理进度
+ *   消息拉取后加入, 处理完成后标记完成, 只提交每个partition中连续完成的最大位置
+ *   这样进程退出时还没有处理完的消息会被重新消费 (at-least-once)
+ */
+class OffsetTracker {
+    private static class PartitionState {
+        TreeSet<Long> pending = new TreeSet<>();        // 已拉取还没有处理完成的offset
+        long next = -1;                                 // 已拉取的最大offset + 1
+        long committed = -1;                            // 已提交的位置
+    }
+
+    private final Map<TopicPartition, PartitionState> partitions = new HashMap<>();
+
+    // 消息已拉取, 开始处理
+    synchronized void add(TopicPartition partition, long offset) {
+        PartitionState state = partitions.computeIfAbsent(partition, p -> new PartitionState());
+        state.pending.add(offset);
+        state.next = Math.max(state.next, offset + 1);
+    }
+
+    // 消息处理完成 (成功或者已经重新放回队列)
+    synchronized void complete(TopicPartition partition, long offset) {
+        PartitionState state = partitions.get(partition);
+        if (state != null)
+            state.pending.remove(offset);
+    }
+
+    // 返回可以提交的位置: 每个partition中最小的未完成offset, 全部完成时为已拉取的最大offset + 1
+    // 只返回比上次提交更大的位置
+    synchronized Map<TopicPartition, OffsetAndMetadata> commitable() {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (Map.Entry<TopicPartition, PartitionState> entry : partitions.entrySet()) {
+            PartitionState state = entry.getValue();
+            long position = state.pending.isEmpty() ? state.next : state.pending.first();
+            if (position > state.committed)
+                offsets.put(entry.getKey(), new OffsetAndMetadata(position));
+        }
+        return offsets;
+    }
+
+    // 提交成功
+    synchronized void committed(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : offsets.entrySet()) {
+            PartitionState state = partitions.get(entry.getKey());
+            if (state != null)
+                state.committed = Math.max(state.committed, entry.getValue().offset());
+        }
+    }
+
+    // partition被分配给了其它consumer, 不再记录
+    synchronized void remove(Collection<TopicPartition> removed) {
+        for (TopicPartition partition : removed)
+            partitions.remove(partition);
+    }
+
+    // 所有partition中未处理完成的消息数量
+    synchronized int pendingCount() {
+        int count = 0;
+        for (PartitionState state : partitions.values())
+            count += state.pending.size();
+        return count;
+    }
+}
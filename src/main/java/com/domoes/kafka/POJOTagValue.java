@@ -1,22 +0,0 @@
-package com.domoes.kafka;
-
-public class POJOTagValue {
-    private String tag;
-    private String value;
-
-    public String getTag() {
-        return tag;
-    }
-
-    public void setTag(String tag) {
-        this.tag = tag;
-    }
-
-    public String getValue() {
-        return value;
-    }
-
-    public void setValue(String value) {
-        this.value = value;
-    }
-}
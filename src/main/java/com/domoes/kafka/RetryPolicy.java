@@ -0,0 +1,31 @@
+package com.domoes.kafka;
+
+import com.domoes.APIs.LoadResult;
+
+/**
+ * Created by liufei on 2019/7/27.
+ * 失败任务的重试策略
+ *   按失败原因选择第一次重试的延时, 之后每次重试延时升一级 (10秒, 1分钟, 10分钟)
+ *   remind key刷新会话后就能恢复, 访问频率限制和验证页需要等更久
+ */
+class RetryPolicy {
+    // 最多重试次数, 超过后放弃该任务
+    static final int maxAttempts = 5;
+
+    // attempts为已经重试的次数
+    static long delayMillis(LoadResult result, int attempts) {
+        int level;
+        switch (result) {
+            case RATE_LIMITED:
+            case VERIFY:
+                level = 1;
+                break;
+            default:
+                level = 0;
+                break;
+        }
+
+        level = Math.min(level + attempts, RetryScheduler.delays.length - 1);
+        return RetryScheduler.delays[level];
+    }
+}
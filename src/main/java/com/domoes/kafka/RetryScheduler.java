@@ -0,0 +1,153 @@
+package com.domoes.kafka;
+
+import com.domoes.Driver;
+import org.apache.kafka.clients.consumer.*;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Created by liufei on 2019/7/27.
+ * 延时重试队列
+ *   失败的任务按延时放到kafkaTopic.retry.10s/1m/10m中, 消息头带有到期时间和重试次数
+ *   同一个延时topic中消息的到期时间是递增的, 遇到未到期的消息就暂停该partition, 到期后再从这条消息继续
+ *   到期的消息转发回任务topic, 转发成功后才提交位置
+ */
+class RetryScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(RetryScheduler.class);
+
+    static final long[] delays = {10 * 1000L, 60 * 1000L, 600 * 1000L};
+    private static final String[] delayNames = {"10s", "1m", "10m"};
+
+    private final KafkaProducer<byte[], byte[]> producer;
+    private final Function<String, String> taskTopic;       // tag -> 任务topic
+    private final List<String> topics = new ArrayList<>();
+    private final KafkaConsumer<byte[], byte[]> consumer;
+    private final Thread thread;
+
+    // 暂停中的partition及其恢复时间 (只在consumer线程中访问)
+    private final Map<TopicPartition, Long> resumeTimes = new HashMap<>();
+
+    // 不小于delayMillis的最短延时topic
+    static String topicFor(String kafkaTopic, long delayMillis) {
+        int i = 0;
+        while (i < delays.length - 1 && delays[i] < delayMillis)
+            i++;
+        return kafkaTopic + ".retry." + delayNames[i];
+    }
+
+    RetryScheduler(String kafkaServerAddr, String kafkaTopic, KafkaProducer<byte[], byte[]> producer, Function<String, String> taskTopic) {
+        this.producer = producer;
+        this.taskTopic = taskTopic;
+        for (long delay : delays)
+            topics.add(topicFor(kafkaTopic, delay));
+
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaServerAddr);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, "consumer.retry");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        props.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, "10000");
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "500");
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
+        consumer = new KafkaConsumer<>(props);
+
+        thread = new Thread(this::loop, "retry-scheduler");
+    }
+
+    void start() {
+        logger.info("retry scheduler consume {}", topics);
+        thread.start();
+    }
+
+    void join(long millis) throws InterruptedException {
+        thread.join(millis);
+    }
+
+    private void loop() {
+        consumer.subscribe(topics, new ConsumerRebalanceListener() {
+            @Override
+            public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                resumeTimes.keySet().removeAll(partitions);
+            }
+
+            @Override
+            public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                logger.info("retry partitions assigned {}", partitions);
+            }
+        });
+
+        while (!Driver.isStop()) {
+            // 到期的partition恢复拉取
+            long now = System.currentTimeMillis();
+            List<TopicPartition> resumes = new ArrayList<>();
+            resumeTimes.entrySet().removeIf(entry -> {
+                if (entry.getValue() > now)
+                    return false;
+                resumes.add(entry.getKey());
+                return true;
+            });
+            if (!resumes.isEmpty())
+                consumer.resume(resumes);
+
+            ConsumerRecords<byte[], byte[]> records = consumer.poll(Duration.ofMillis(1000));
+
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            Map<TopicPartition, Long> firstOffsets = new HashMap<>();
+            AtomicBoolean sendFailed = new AtomicBoolean(false);
+            for (TopicPartition partition : records.partitions()) {
+                firstOffsets.put(partition, records.records(partition).get(0).offset());
+                for (ConsumerRecord<byte[], byte[]> record : records.records(partition)) {
+                    TaskEnvelope envelope = TaskEnvelope.decode(record);
+                    if (envelope != null && envelope.getDue() > System.currentTimeMillis()) {
+                        // 还没到期, 下次从这条消息开始
+                        consumer.seek(partition, record.offset());
+                        consumer.pause(Collections.singletonList(partition));
+                        resumeTimes.put(partition, envelope.getDue());
+                        break;
+                    }
+
+                    if (envelope != null) {
+                        String topic = taskTopic.apply(envelope.getTag());
+                        logger.info("retry task {} to {}, attempts {}", envelope.getValue(), topic, envelope.getAttempts());
+                        producer.send(TaskEnvelope.encode(topic, envelope.getTag(), envelope.getValue().getBytes(StandardCharsets.UTF_8),
+                                envelope.getAttempts(), 0), (recordMetadata, e) -> {
+                            if (e != null) {
+                                logger.warn("retry task send failed, {}", e.getMessage());
+                                sendFailed.set(true);
+                            }
+                        });
+                    }
+                    offsets.put(partition, new OffsetAndMetadata(record.offset() + 1));
+                }
+            }
+
+            // 转发的消息发送完成后再提交位置, 中途退出时会重复转发但不会丢失
+            if (!offsets.isEmpty()) {
+                producer.flush();
+                if (sendFailed.get()) {
+                    // 有发送失败的消息, 这一批全部重新转发
+                    for (TopicPartition partition : offsets.keySet())
+                        consumer.seek(partition, firstOffsets.get(partition));
+                    continue;
+                }
+
+                try {
+                    consumer.commitSync(offsets);
+                } catch (Exception e) {
+                    logger.warn("exception at commit retry offsets {}. {}", offsets, e.getMessage());
+                }
+            }
+        }
+
+        consumer.close();
+    }
+}
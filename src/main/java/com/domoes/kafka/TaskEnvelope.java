@@ -0,0 +1,104 @@
+package com.domoes.kafka;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Created by liufei on 2019/7/26.
+ * kafka任务消息格式
+ *   tag放在消息头中, 消息体是原始的任务内容, 不再包装为json串
+ *   key是任务内容的hash, 多线程发送不需要同步, 相同的任务会落到同一个partition
+ *   重试的任务在消息头中带有已重试次数, 延时队列中的任务还带有到期时间
+ *   没有tag消息头的旧消息按json串 {"tag":..., "value":...} 解析
+ */
+public class TaskEnvelope {
+    private static final Logger logger = LoggerFactory.getLogger(TaskEnvelope.class);
+
+    public static final String TAG_HEADER = "tag";
+    public static final String ATTEMPTS_HEADER = "attempts";
+    public static final String DUE_HEADER = "due";
+
+    private final String tag;
+    private final String value;
+    private int attempts = 0;
+    private long due = 0;
+
+    private TaskEnvelope(String tag, String value) {
+        this.tag = tag;
+        this.value = value;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    // 已经重试的次数
+    public int getAttempts() {
+        return attempts;
+    }
+
+    // 延时任务的到期时间 (ms), 0表示不需要等待
+    public long getDue() {
+        return due;
+    }
+
+    // 生成要发送的消息
+    public static ProducerRecord<byte[], byte[]> encode(String topic, String tag, byte[] message) {
+        return encode(topic, tag, message, 0, 0);
+    }
+
+    // 生成重试的消息, due为0时不带到期时间
+    public static ProducerRecord<byte[], byte[]> encode(String topic, String tag, byte[] message, int attempts, long due) {
+        byte[] key = Longs.toByteArray(Hashing.murmur3_128().hashBytes(message).asLong());
+        ProducerRecord<byte[], byte[]> record = new ProducerRecord<>(topic, key, message);
+        record.headers().add(TAG_HEADER, tag.getBytes(StandardCharsets.UTF_8));
+        if (attempts > 0)
+            record.headers().add(ATTEMPTS_HEADER, Ints.toByteArray(attempts));
+        if (due > 0)
+            record.headers().add(DUE_HEADER, Longs.toByteArray(due));
+        return record;
+    }
+
+    // 解析收到的消息, 格式不对时返回null
+    public static TaskEnvelope decode(ConsumerRecord<byte[], byte[]> record) {
+        if (record.value() == null)
+            return null;
+
+        Header header = record.headers().lastHeader(TAG_HEADER);
+        if (header != null) {
+            TaskEnvelope envelope = new TaskEnvelope(new String(header.value(), StandardCharsets.UTF_8), new String(record.value(), StandardCharsets.UTF_8));
+            Header attempts = record.headers().lastHeader(ATTEMPTS_HEADER);
+            if (attempts != null && attempts.value().length == Integer.BYTES)
+                envelope.attempts = Ints.fromByteArray(attempts.value());
+            Header due = record.headers().lastHeader(DUE_HEADER);
+            if (due != null && due.value().length == Long.BYTES)
+                envelope.due = Longs.fromByteArray(due.value());
+            return envelope;
+        }
+
+        // 旧格式
+        try {
+            JSONObject tagValue = JSON.parseObject(new String(record.value(), StandardCharsets.UTF_8));
+            if (tagValue == null || tagValue.getString("tag") == null || tagValue.getString("value") == null)
+                throw new IllegalArgumentException("missing tag or value");
+            return new TaskEnvelope(tagValue.getString("tag"), tagValue.getString("value"));
+        } catch (Exception e) {
+            logger.warn("invalid kafka message at partition {} offset {}. {}", record.partition(), record.offset(), e.getMessage());
+            return null;
+        }
+    }
+}
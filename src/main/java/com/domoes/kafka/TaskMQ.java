@@ -17,6 +17,12 @@ public interface TaskMQ {
     // 发送一条消息到任务队列
     void pushMessage(byte[] message, String tag);
 
+    // 失败的任务延时delayMillis后重新放回队列, attempts为包括这一次在内的重试次数
+    // 不支持延时的消息队列直接放回
+    default void retryMessage(byte[] message, String tag, int attempts, long delayMillis) {
+        pushMessage(message, tag);
+    }
+
     // 结束消息队列的处理过程
     void stop();
 }
@@ -0,0 +1,136 @@
+package com.domoes.mongodb;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by liufei on 2019/7/24.
+ * 批量写入
+ *   写操作先放到队列中, 由后台线程按数量或时间合并为一次无序的bulkWrite
+ *   每批写完才取下一批, mongodb变慢时队列会被填满, add会等待 (反压)
+ */
+class BulkWriter {
+    private static final Logger logger = LoggerFactory.getLogger(BulkWriter.class);
+
+    private final MongoCollection<Document> collection;
+    private final String name;
+    private final int batchSize;
+    private final long flushMillis;
+    private final BlockingQueue<WriteModel<Document>> queue;
+    private final Thread thread;
+    private volatile boolean stop = false;
+
+    /**
+     * @param batchSize 每批最多写入的条数
+     * @param flushMillis 不足一批时最多等待的时间
+     * @param capacity 队列中最多等待写入的条数
+     */
+    BulkWriter(MongoCollection<Document> collection, String name, int batchSize, long flushMillis, int capacity) {
+        this.collection = collection;
+        this.name = name;
+        this.batchSize = batchSize;
+        this.flushMillis = flushMillis;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        thread = new Thread(this::run, "bulkwriter-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // 添加一个写操作, 队列满时等待
+    void add(WriteModel<Document> model) {
+        if (stop) {
+            logger.warn("{} bulk writer stopped, write directly.", name);
+            write(Collections.singletonList(model));
+            return;
+        }
+
+        try {
+            queue.put(model);
+        } catch (InterruptedException e) {
+            logger.warn("interrupted at add write model. {}", e.getMessage());
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<WriteModel<Document>> batch = new ArrayList<>(batchSize);
+        while (!stop) {
+            try {
+                WriteModel<Document> model = queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+                if (model == null)
+                    continue;
+
+                // 收集一批, 最多等待flushMillis
+                batch.add(model);
+                long deadline = System.currentTimeMillis() + flushMillis;
+                while (batch.size() < batchSize) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0)
+                        break;
+                    model = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (model == null)
+                        break;
+                    batch.add(model);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                logger.info("{} bulk writer interrupted.", name);
+            }
+
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    // 执行一次无序批量写入, 等待结果返回
+    private void write(List<WriteModel<Document>> batch) {
+        SubscriberHelpers.ObservableSubscriber<BulkWriteResult> subscriber = new SubscriberHelpers.OperationSubscriber<>();
+        collection.bulkWrite(batch, new BulkWriteOptions().ordered(false)).subscribe(subscriber);
+        try {
+            List<BulkWriteResult> results = subscriber.get(60, TimeUnit.SECONDS);
+            if (!results.isEmpty()) {
+                BulkWriteResult result = results.get(0);
+                logger.info("{} bulk write {}, inserted {}, matched {}, upserted {}", name, batch.size(),
+                        result.getInsertedCount(), result.getMatchedCount(), result.getUpserts().size());
+            }
+        } catch (Throwable e) {
+            logger.warn("exception at {} bulk write {}. {}", name, batch.size(), e.getMessage());
+        }
+    }
+
+    // 停止后台线程, 并写入队列中剩余的数据
+    synchronized void stop() {
+        if (stop)
+            return;
+        stop = true;
+
+        // 后台线程最多flushMillis后会检查到stop, 写完当前批次后退出
+        try {
+            thread.join(60 * 1000);
+        } catch (InterruptedException e) {
+            logger.warn("interrupted at wait {} bulk writer quit. {}", name, e.getMessage());
+        }
+
+        List<WriteModel<Document>> batch = new ArrayList<>();
+        while (queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+        logger.info("{} bulk writer stopped.", name);
+    }
+}
@@ -0,0 +1,219 @@
+package com.domoes.mongodb;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Projections.excludeId;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+
+/**
+ * Created by liufei on 2019/7/25.
+ * 已获取内容的文书的Bloom过滤器
+ *   过滤器中没有的docid一定还没有获取内容, 不需要再查询mongodb; 可能存在时才查询mongodb确认
+ *   启动时从快照文件加载, 再从mongodb补充快照之后完成的文书 (没有快照时按contentdate全量扫描), 加载完成前都直接查询mongodb
+ *   其它节点完成的文书每5分钟增量加载一次
+ */
+class FinishedFilter {
+    private static final Logger logger = LoggerFactory.getLogger(FinishedFilter.class);
+
+    // 预计文书数量2000万, 误判率0.1%, 占用内存约36M
+    private static final long expectedInsertions = 20000000L;
+    private static final double fpp = 0.001;
+    private static final int refreshMinutes = 5;
+    private static final int stallSeconds = 60;        // 扫描时超过这个时间没有收到数据就放弃, 加载完成前继续直接查询mongodb
+
+    private final MongoCollection<Document> collection;
+    private final String snapshotFile;
+    private BloomFilter<CharSequence> filter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, fpp);
+    private volatile boolean ready = false;
+    private volatile long scanTime = 0;         // 这个时间之前完成的文书都已经加载到过滤器中
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param snapshotFile 快照文件, 为空时不使用快照
+     */
+    FinishedFilter(MongoCollection<Document> collection, String snapshotFile) {
+        this.collection = collection;
+        this.snapshotFile = snapshotFile;
+    }
+
+    void start() {
+        loadSnapshot();
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "finishedfilter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(() -> {
+            if (refresh()) {
+                ready = true;
+                logger.info("finished filter ready, approximate count {}", filter.approximateElementCount());
+                saveSnapshot();
+            }
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            if (refresh() && !ready) {
+                ready = true;
+                saveSnapshot();
+            }
+        }, refreshMinutes, refreshMinutes, TimeUnit.MINUTES);
+    }
+
+    // 文书内容已写入
+    void put(String docId) {
+        filter.put(docId);
+    }
+
+    // 返回false表示该文书一定还没有获取内容
+    boolean mightBeFinished(String docId) {
+        return !ready || filter.mightContain(docId);
+    }
+
+    void stop() {
+        if (executor != null)
+            executor.shutdownNow();
+        if (ready)
+            saveSnapshot();
+    }
+
+    // 加载scanTime之后完成的文书 (多留1分钟, 避免写入时间与本机时间的误差)
+    // 没有快照时加载所有已完成的文书, 同样按contentdate查询 (有索引, 写入内容时一定会设置contentdate)
+    private boolean refresh() {
+        long time = System.currentTimeMillis();
+        Bson query = gte("contentdate", new Date(scanTime > 0 ? scanTime - 60 * 1000 : 0));
+        if (!scan(query))
+            return false;
+
+        scanTime = time;
+        return true;
+    }
+
+    private boolean scan(Bson query) {
+        logger.info("finished filter scan {}", query);
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicLong count = new AtomicLong();
+        Throwable[] error = new Throwable[1];
+        Subscription[] current = new Subscription[1];
+
+        // 流式读取, 每次请求1000条, 不在内存中保存结果
+        // 只取docid, 不读取文书内容
+        collection.find(query).projection(fields(include("docid"), excludeId())).batchSize(1000).subscribe(new Subscriber<Document>() {
+            private Subscription subscription;
+
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription = s;
+                current[0] = s;
+                s.request(1000);
+            }
+
+            @Override
+            public void onNext(Document document) {
+                String docId = document.getString("docid");
+                if (docId != null)
+                    filter.put(docId);
+                if (count.incrementAndGet() % 1000 == 0)
+                    subscription.request(1000);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                error[0] = t;
+                latch.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                latch.countDown();
+            }
+        });
+
+        // 一直有数据时等待扫描完成, 超过stallSeconds没有新数据时放弃 (mongodb连接卡住时不会一直等下去)
+        try {
+            long last = -1;
+            while (!latch.await(stallSeconds, TimeUnit.SECONDS)) {
+                long scanned = count.get();
+                if (scanned == last) {
+                    logger.warn("finished filter scan stalled after {} docs, give up.", scanned);
+                    if (current[0] != null)
+                        current[0].cancel();
+                    return false;
+                }
+                last = scanned;
+            }
+        } catch (InterruptedException e) {
+            logger.warn("interrupted at finished filter scan. {}", e.getMessage());
+            return false;
+        }
+        if (error[0] != null) {
+            logger.warn("exception at finished filter scan. {}", error[0].getMessage());
+            return false;
+        }
+
+        logger.info("finished filter scanned {} docs.", count.get());
+        return true;
+    }
+
+    // 快照格式: scanTime(long) + BloomFilter数据
+    private void loadSnapshot() {
+        if (snapshotFile == null || snapshotFile.isEmpty())
+            return;
+
+        File file = new File(snapshotFile);
+        if (!file.exists())
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long time = in.readLong();
+            filter = BloomFilter.readFrom(in, Funnels.stringFunnel(StandardCharsets.UTF_8));
+            scanTime = time;
+            logger.info("finished filter snapshot loaded, scan time {}, approximate count {}", new Date(time), filter.approximateElementCount());
+        } catch (Exception e) {
+            logger.warn("exception at load finished filter snapshot {}. {}", snapshotFile, e.getMessage());
+        }
+    }
+
+    // 先写临时文件再替换, 避免写了一半的快照
+    private synchronized void saveSnapshot() {
+        if (snapshotFile == null || snapshotFile.isEmpty())
+            return;
+
+        File file = new File(snapshotFile);
+        File tmpFile = new File(snapshotFile + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeLong(scanTime);
+            filter.writeTo(out);
+        } catch (Exception e) {
+            logger.warn("exception at save finished filter snapshot {}. {}", snapshotFile, e.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("finished filter snapshot saved to {}", snapshotFile);
+        } catch (Exception e) {
+            logger.warn("exception at replace finished filter snapshot {}. {}", snapshotFile, e.getMessage());
+        }
+    }
+}
@@ -1,19 +1,22 @@
 package com.domoes.mongodb;
 
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.reactivestreams.client.*;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Projections.include;
+import static com.mongodb.client.model.Sorts.ascending;
 
 /**
  * Created by liufei on 2019/6/11.
@@ -21,13 +24,36 @@ import static com.mongodb.client.model.Projections.include;
  */
 public class MongoUtils {
     private static final Logger logger = LoggerFactory.getLogger(MongoUtils.class);
-    private static SimpleDateFormat judgeDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    // SimpleDateFormat不是线程安全的, 每个线程一个
+    private static ThreadLocal<SimpleDateFormat> judgeDateFormat = ThreadLocal.withInitial(() -> new SimpleDateFormat("yyyy-MM-dd"));
 
     private static MongoCollection<Document> wenshuCollection;      // 文书表
     private static MongoCollection<Document> rawlistCollection;     // 列表原始数据表 (仅保存未成功加载的列表)
     private static MongoCollection<Document> switchIpCollection;    // 切换ip的记录表
     private static MongoCollection<Document> wordsCollection;       // 分词结果表
 
+    // 文书摘要和内容的批量写入 (每批最多200条, 最多等待1秒, 队列最多5000条)
+    private static BulkWriter wenshuWriter;
+    private static final int bulkBatchSize = 200;
+    private static final long bulkFlushMillis = 1000;
+    private static final int bulkQueueCapacity = 5000;
+
+    // 已获取内容的文书过滤器, 为null时直接查询mongodb
+    private static FinishedFilter finishedFilter;
+
+    // 所有节点共享的任务状态
+    private static BulkWriter taskStateWriter;
+    private static TaskStateStore taskStateStore;
+
+    // 查询条件的文书数量统计, 30天没有更新的记录由TTL索引删除
+    private static MongoCollection<Document> queryStatsCollection;
+    private static BulkWriter queryStatsWriter;
+    private static final long queryStatsExpireDays = 30;
+
+    // 已抓取的列表查询记录
+    private static MongoCollection<Document> frontierCollection;
+    private static BulkWriter frontierWriter;
+
     public static boolean init(String uri, String database, String collection) {
         MongoClient mongoClient = MongoClients.create(uri);
         MongoDatabase mongoDatabase = mongoClient.getDatabase(database);
@@ -35,21 +61,44 @@ public class MongoUtils {
         rawlistCollection = mongoDatabase.getCollection("rawlistdata");
         switchIpCollection = mongoDatabase.getCollection("switchip");
         wordsCollection = mongoDatabase.getCollection("words");
+        wenshuWriter = new BulkWriter(wenshuCollection, "wenshu", bulkBatchSize, bulkFlushMillis, bulkQueueCapacity);
+        MongoCollection<Document> taskStateCollection = mongoDatabase.getCollection("taskstate");
+        taskStateWriter = new BulkWriter(taskStateCollection, "taskstate", bulkBatchSize, bulkFlushMillis, bulkQueueCapacity);
+        taskStateStore = new TaskStateStore(taskStateCollection, taskStateWriter);
+        queryStatsCollection = mongoDatabase.getCollection("querystats");
+        queryStatsWriter = new BulkWriter(queryStatsCollection, "querystats", bulkBatchSize, bulkFlushMillis, bulkQueueCapacity);
+        frontierCollection = mongoDatabase.getCollection("frontier");
+        frontierWriter = new BulkWriter(frontierCollection, "frontier", bulkBatchSize, bulkFlushMillis, bulkQueueCapacity);
+        // 进程退出时写入还在队列中的数据
+        Runtime.getRuntime().addShutdownHook(new Thread(MongoUtils::stop));
 
         // 索引
         wenshuCollection.createIndex(new Document("casenumber", 1).append("title", 1))
                 .subscribe(new SubscriberHelpers.PrintSubscriber<>(logger, "mongodb wenshu index add result {}"));
         wenshuCollection.createIndex(new Document("docid", 1), new IndexOptions().unique(true))
                 .subscribe(new SubscriberHelpers.PrintSubscriber<>(logger, "mongodb wenshu index add result {}"));
+        wenshuCollection.createIndex(new Document("contentdate", 1))
+                .subscribe(new SubscriberHelpers.PrintSubscriber<>(logger, "mongodb wenshu index add result {}"));
 
         switchIpCollection.createIndex(new Document("ip", 1))
                 .subscribe(new SubscriberHelpers.PrintSubscriber<>(logger, "mongodb switchip index add result {}"));
 
+        queryStatsCollection.createIndex(new Document("updated", 1), new IndexOptions().expireAfter(queryStatsExpireDays, TimeUnit.DAYS))
+                .subscribe(new SubscriberHelpers.PrintSubscriber<>(logger, "mongodb querystats index add result {}"));
+
         return true;
     }
 
+    // 启用已获取内容的文书过滤器, 减少wenshuGotFinished对mongodb的查询
+    // snapshotFile为过滤器的快照文件, 为空时每次启动都从mongodb全量加载
+    public static void initFinishedFilter(String snapshotFile) {
+        finishedFilter = new FinishedFilter(wenshuCollection, snapshotFile);
+        finishedFilter.start();
+    }
+
     // 添加一条新的文书摘要
-    // 不检查插入的结果
+    // 通过批量写入, 不检查插入的结果
+    // 以docid做upsert, 这样与内容的更新在同一批中以任意顺序执行都可以; descdate只在第一次写入时设置
     // 字段说明
     //    _id
     //    title 标题
@@ -63,7 +112,7 @@ public class MongoUtils {
         // judgedate转为日期格式
         Date juedge;
         try {
-            juedge = judgeDateFormat.parse(judgedate);
+            juedge = judgeDateFormat.get().parse(judgedate);
         } catch (Exception e) {
             logger.warn("invalid judgedate format. {}", e.getMessage());
             juedge = new Date();
@@ -76,11 +125,11 @@ public class MongoUtils {
                 .append("casecourt", casecourt)
                 .append("casenumber", casenumber)
                 .append("judgedate", juedge)
-                .append("descdate", new Date())
                 .append("ajlx", ajlx)
-                .append("glws", glws)
-                .append("docid", docId);
-        wenshuCollection.insertOne(doc).subscribe(new SubscriberHelpers.OperationSubscriber<>());
+                .append("glws", glws);
+        wenshuWriter.add(new UpdateOneModel<>(eq("docid", docId),
+                new Document("$set", doc).append("$setOnInsert", new Document("descdate", new Date())),
+                new UpdateOptions().upsert(true)));
     }
 
     // 添加完整的文书内容
@@ -90,12 +139,15 @@ public class MongoUtils {
         // judgedate转为日期格式
         Date juedge;
         try {
-            juedge = judgeDateFormat.parse(judgedate);
+            juedge = judgeDateFormat.get().parse(judgedate);
         } catch (Exception e) {
             logger.warn("invalid judgedate format. {}", e.getMessage());
             juedge = new Date();
         }
 
+        if (finishedFilter != null && content != null && !content.isEmpty())
+            finishedFilter.put(docId);
+
         // 如果该文档已存在, 执行更新操作
         if (docIdExist(docId)) {
             updateWenshuContent(docId, content, caseInfo, caseType, courtId);
@@ -118,7 +170,7 @@ public class MongoUtils {
     }
 
     // 更新文书内容
-    // 不检查更新结果
+    // 通过批量写入, 不检查更新结果 (upsert, 摘要还没写入时也不会丢失内容)
     // 字段说明
     //    content 文书内容
     //    contentdate 获取文书内容的时间
@@ -128,14 +180,118 @@ public class MongoUtils {
     //    courtid 审判法院编号
     public static void updateWenshuContent(String docId, String content,
                                            String caseInfo, int caseType, int courtId) {
-        wenshuCollection.updateOne(eq("docid", docId),
+        // 写入失败时过滤器中多了一条, 只会多查询一次mongodb
+        if (finishedFilter != null && content != null && !content.isEmpty())
+            finishedFilter.put(docId);
+
+        wenshuWriter.add(new UpdateOneModel<>(eq("docid", docId),
                 new Document("$set", new Document("content", content).append("contentdate", new Date())
-                        .append("caseinfo", caseInfo).append("casetype", caseType).append("courtid", courtId)))
-                .subscribe(new SubscriberHelpers.OperationSubscriber<>());
+                        .append("caseinfo", caseInfo).append("casetype", caseType).append("courtid", courtId)),
+                new UpdateOptions().upsert(true)));
+    }
+
+    // 写入队列中剩余的数据
+    public static void stop() {
+        if (wenshuWriter != null)
+            wenshuWriter.stop();
+        if (taskStateWriter != null)
+            taskStateWriter.stop();
+        if (queryStatsWriter != null)
+            queryStatsWriter.stop();
+        if (frontierWriter != null)
+            frontierWriter.stop();
+        if (finishedFilter != null)
+            finishedFilter.stop();
+    }
+
+    // 检查任务是否已经由某个节点完成
+    // key为任务指纹
+    public static boolean taskGotFinished(String key) {
+        return taskStateStore != null && taskStateStore.isFinished(key);
+    }
+
+    // 记录任务已完成
+    public static void setTaskFinished(String key, String tag) {
+        setTaskFinished(key, tag, null);
+    }
+
+    // 记录任务已完成, 在expires之后需要重新执行 (为null时一直有效, 直到记录被删除)
+    public static void setTaskFinished(String key, String tag, Date expires) {
+        if (taskStateStore != null)
+            taskStateStore.finished(key, tag, expires);
+    }
+
+    // 记录任务失败一次, 返回所有节点上累计的失败次数, 失败时返回-1
+    public static int addTaskFailure(String key, String tag, String error) {
+        if (taskStateStore == null)
+            return -1;
+        return taskStateStore.failed(key, tag, error);
+    }
+
+    // 记录查询条件的文书数量, 批量写入
+    // param为按关键字排序后的查询条件
+    public static void saveQueryCount(String param, int count) {
+        if (queryStatsWriter == null)
+            return;
+        queryStatsWriter.add(new UpdateOneModel<>(eq("_id", param),
+                new Document("$set", new Document("count", count).append("updated", new Date())),
+                new UpdateOptions().upsert(true)));
+    }
+
+    // 批量查询条件的文书数量, 没有记录的条件不在结果中, 查询失败时返回null
+    public static Map<String, Integer> getQueryCounts(Collection<String> params) {
+        if (queryStatsCollection == null)
+            return null;
+
+        SubscriberHelpers.OperationSubscriber<Document> subscriber = new SubscriberHelpers.OperationSubscriber<>();
+        queryStatsCollection.find(in("_id", params)).projection(include("count")).subscribe(subscriber);
+        try {
+            Map<String, Integer> result = new HashMap<>();
+            for (Document doc : subscriber.get(5, TimeUnit.SECONDS))
+                result.put(doc.getString("_id"), doc.getInteger("count", -1));
+            return result;
+        } catch (Throwable e) {
+            logger.warn("exception at get query counts. {}", e.getMessage());
+            return null;
+        }
+    }
+
+    // 记录列表查询的一页已抓取, 批量写入
+    // key为查询条件的指纹加页码
+    public static void saveFrontier(String key, int count) {
+        if (frontierWriter == null)
+            return;
+        frontierWriter.add(new UpdateOneModel<>(eq("_id", key),
+                new Document("$set", new Document("status", "done").append("count", count).append("crawled", new Date())),
+                new UpdateOptions().upsert(true)));
+    }
+
+    // 批量查询列表查询的最后抓取时间, 没有抓取过的不在结果中, 查询失败时返回null
+    public static Map<String, Date> getFrontierCrawled(Collection<String> keys) {
+        if (frontierCollection == null)
+            return null;
+
+        SubscriberHelpers.OperationSubscriber<Document> subscriber = new SubscriberHelpers.OperationSubscriber<>();
+        frontierCollection.find(and(in("_id", keys), eq("status", "done"))).projection(include("crawled")).subscribe(subscriber);
+        try {
+            Map<String, Date> result = new HashMap<>();
+            for (Document doc : subscriber.get(5, TimeUnit.SECONDS)) {
+                Date crawled = doc.getDate("crawled");
+                if (crawled != null)
+                    result.put(doc.getString("_id"), crawled);
+            }
+            return result;
+        } catch (Throwable e) {
+            logger.warn("exception at get frontier. {}", e.getMessage());
+            return null;
+        }
     }
 
     // 检查指定的文书是否已获取完整
     public static boolean wenshuGotFinished(String docid) {
+        if (finishedFilter != null && !finishedFilter.mightBeFinished(docid))
+            return false;
+
         SubscriberHelpers.OperationSubscriber<Document> subscriber = new SubscriberHelpers.OperationSubscriber<>();
         wenshuCollection.find(and(eq("docid", docid), exists("content")))
                 .projection(include("content"))
@@ -170,6 +326,9 @@ public class MongoUtils {
 
     // 检查指定的文书是否已获取完整
     public static boolean wenshuGotFinishedByDocId(String docid) {
+        if (finishedFilter != null && !finishedFilter.mightBeFinished(docid))
+            return false;
+
         SubscriberHelpers.OperationSubscriber<Document> subscriber = new SubscriberHelpers.OperationSubscriber<>();
         wenshuCollection.find(and(eq("docid", docid), exists("content")))
                 .projection(include("content"))
@@ -216,9 +375,11 @@ public class MongoUtils {
 //    }
 
     // 获取有内容的文书列表
-    public static List<Document> getFinishedWenshuList(int skip, int limit, int waitSeconds) {
+    // 按_id顺序取lastId之后的limit条, lastId为null时从头开始; 调用方用返回的最后一条_id继续获取
+    // 返回null表示查询失败, 可以用同一个lastId重试
+    public static List<Document> getFinishedWenshuList(ObjectId lastId, int limit, int waitSeconds) {
         SubscriberHelpers.ObservableSubscriber<Document> subscriber = new SubscriberHelpers.ObservableSubscriber<>();
-        wenshuCollection.find(exists("content")).skip(skip).limit(limit).subscribe(subscriber);
+        wenshuCollection.find(afterId(exists("content"), lastId)).sort(ascending("_id")).limit(limit).subscribe(subscriber);
         try {
             return subscriber.get(waitSeconds, TimeUnit.SECONDS);
         } catch (Throwable e) {
@@ -227,10 +388,11 @@ public class MongoUtils {
         }
     }
 
-    // 获取文书的casenumber列表
-    public static List<Document> getCaseNumberList(int skip, int limit, int waitSeconds) {
+    // 获取文书的casenumber列表 (按_id顺序, 参数同getFinishedWenshuList)
+    public static List<Document> getCaseNumberList(ObjectId lastId, int limit, int waitSeconds) {
         SubscriberHelpers.ObservableSubscriber<Document> subscriber = new SubscriberHelpers.ObservableSubscriber<>();
-        wenshuCollection.find(exists("casenumber")).projection(include("casenumber")).skip(skip).limit(limit).subscribe(subscriber);
+        wenshuCollection.find(afterId(exists("casenumber"), lastId)).projection(include("casenumber"))
+                .sort(ascending("_id")).limit(limit).subscribe(subscriber);
         try {
             return subscriber.get(waitSeconds, TimeUnit.SECONDS);
         } catch (Throwable e) {
@@ -240,6 +402,13 @@ public class MongoUtils {
     }
 
 
+    // 在查询条件上加上_id > lastId (按_id范围遍历, 不使用skip, 不会随着遍历的位置变慢)
+    private static Bson afterId(Bson filter, ObjectId lastId) {
+        if (lastId == null)
+            return filter;
+        return and(filter, gt("_id", lastId));
+    }
+
     // 添加一条未成功获取的原始列表数据
     public static void insertRawListData(String data, String param, String index) {
         // data 为"[{\"RunEval\":\"w61Zw51
@@ -257,10 +426,10 @@ public class MongoUtils {
                 .subscribe(new SubscriberHelpers.PrintSubscriber<>(logger, "delete rawlistdata result {}"));
     }
 
-    // 获取rawlistdata表的列表
-    public static List<Document> getRawListData(int skip, int limit, int waitSeconds) {
+    // 获取rawlistdata表的列表 (按_id顺序, 参数同getFinishedWenshuList)
+    public static List<Document> getRawListData(ObjectId lastId, int limit, int waitSeconds) {
         SubscriberHelpers.ObservableSubscriber<Document> subscriber = new SubscriberHelpers.ObservableSubscriber<>();
-        rawlistCollection.find().skip(skip).limit(limit).subscribe(subscriber);
+        rawlistCollection.find(afterId(new Document(), lastId)).sort(ascending("_id")).limit(limit).subscribe(subscriber);
         try {
             return subscriber.get(waitSeconds, TimeUnit.SECONDS);
         } catch (Throwable e) {
@@ -281,6 +450,21 @@ public class MongoUtils {
         switchIpCollection.insertOne(doc).subscribe(new SubscriberHelpers.OperationSubscriber<>());
     }
 
+    // 指定时间之后切换到该ip的次数 (所有节点), 查询失败时返回0
+    public static long getSwitchIpCount(String ip, long sinceMillis) {
+        if (switchIpCollection == null)
+            return 0;
+
+        SubscriberHelpers.OperationSubscriber<Long> subscriber = new SubscriberHelpers.OperationSubscriber<>();
+        switchIpCollection.countDocuments(and(eq("ip", ip), gte("date", new Date(sinceMillis)))).subscribe(subscriber);
+        try {
+            List<Long> result = subscriber.get(5, TimeUnit.SECONDS);
+            return result.isEmpty() ? 0 : result.get(0);
+        } catch (Throwable e) {
+            logger.warn("exception at count switch ip {}. {}", ip, e.getMessage());
+            return 0;
+        }
+    }
 
     // 检查文书的关键词是否已提取
     public static boolean keywordsGotFinished(String docid) {
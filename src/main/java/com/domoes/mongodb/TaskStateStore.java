@@ -0,0 +1,117 @@
+package com.domoes.mongodb;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Projections.include;
+
+/**
+ * Created by liufei on 2019/7/28.
+ * 所有节点共享的任务状态 (taskstate表)
+ *   以任务指纹为_id, 记录失败次数, 最后一次失败原因和是否已完成, 7天没有更新的记录由TTL索引删除
+ *   已完成的任务在本地缓存, 重复的任务不需要每次都查询mongodb
+ *   完成状态可以带有效期 (expires), 过期后同一任务需要重新执行 (列表任务按frontier的重新抓取间隔)
+ */
+class TaskStateStore {
+    private static final Logger logger = LoggerFactory.getLogger(TaskStateStore.class);
+
+    private static final long expireDays = 7;
+    private static final int waitSeconds = 5;
+
+    private final MongoCollection<Document> collection;
+    private final BulkWriter writer;
+    // 任务指纹 -> 完成状态的过期时间 (Long.MAX_VALUE表示不过期)
+    private final Cache<String, Long> finishedCache = CacheBuilder.newBuilder()
+            .maximumSize(500000)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+
+    TaskStateStore(MongoCollection<Document> collection, BulkWriter writer) {
+        this.collection = collection;
+        this.writer = writer;
+
+        collection.createIndex(new Document("updated", 1), new IndexOptions().expireAfter(expireDays, TimeUnit.DAYS))
+                .subscribe(new SubscriberHelpers.PrintSubscriber<>(logger, "mongodb taskstate index add result {}"));
+    }
+
+    // 任务是否已经由某个节点完成, 查询失败时返回false (重复执行一次)
+    boolean isFinished(String key) {
+        long now = System.currentTimeMillis();
+        Long cached = finishedCache.getIfPresent(key);
+        if (cached != null) {
+            if (cached > now)
+                return true;
+            finishedCache.invalidate(key);
+        }
+
+        SubscriberHelpers.OperationSubscriber<Document> subscriber = new SubscriberHelpers.OperationSubscriber<>();
+        collection.find(and(eq("_id", key), eq("finished", true))).projection(include("expires")).subscribe(subscriber);
+        Document doc;
+        try {
+            List<Document> docs = subscriber.get(waitSeconds, TimeUnit.SECONDS);
+            if (docs.isEmpty())
+                return false;
+            doc = docs.get(0);
+        } catch (Throwable e) {
+            logger.warn("exception at get task state {}. {}", key, e.getMessage());
+            return false;
+        }
+
+        if (!isFinished(doc, now))
+            return false;
+        finishedCache.put(key, expiresMillis(doc.getDate("expires")));
+        return true;
+    }
+
+    // 完成状态是否还有效
+    static boolean isFinished(Document doc, long now) {
+        return Boolean.TRUE.equals(doc.getBoolean("finished", true)) && expiresMillis(doc.getDate("expires")) > now;
+    }
+
+    private static long expiresMillis(Date expires) {
+        return expires != null ? expires.getTime() : Long.MAX_VALUE;
+    }
+
+    // 任务已完成, 批量写入
+    // expires为null时完成状态一直有效
+    void finished(String key, String tag, Date expires) {
+        finishedCache.put(key, expiresMillis(expires));
+        Document update = new Document("$set", new Document("tag", tag).append("finished", true).append("updated", new Date())
+                .append("expires", expires));
+        writer.add(new UpdateOneModel<>(eq("_id", key), update, new UpdateOptions().upsert(true)));
+    }
+
+    // 任务失败一次, 返回所有节点上累计的失败次数, 查询失败时返回-1
+    int failed(String key, String tag, String error) {
+        SubscriberHelpers.OperationSubscriber<Document> subscriber = new SubscriberHelpers.OperationSubscriber<>();
+        collection.findOneAndUpdate(eq("_id", key),
+                new Document("$inc", new Document("attempts", 1))
+                        .append("$set", new Document("tag", tag).append("lasterror", error).append("updated", new Date())),
+                new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER))
+                .subscribe(subscriber);
+        try {
+            List<Document> docs = subscriber.get(waitSeconds, TimeUnit.SECONDS);
+            if (docs.isEmpty())
+                return -1;
+            return docs.get(0).getInteger("attempts", -1);
+        } catch (Throwable e) {
+            logger.warn("exception at update task state {}. {}", key, e.getMessage());
+            return -1;
+        }
+    }
+}
@@ -1,17 +1,15 @@
 package com.domoes.pages;
 
 import com.domoes.APIs.APIScheduler;
+import com.domoes.APIs.DocContentCrawler;
 import com.domoes.mongodb.MongoUtils;
 import com.domoes.kafka.TaskMQ;
-import org.openqa.selenium.By;
 import org.openqa.selenium.WebDriver;
-import org.openqa.selenium.WebElement;
-import org.openqa.selenium.support.ui.ExpectedConditions;
-import org.openqa.selenium.support.ui.WebDriverWait;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -23,6 +21,33 @@ import java.util.Map;
 public class ContentPageCrawler {
     private static final Logger logger = LoggerFactory.getLogger(ContentPageCrawler.class);
     private static final int waitingForDivContent = 3;     // 秒
+    private static final String divContentReady = "(function(main) { return main && main.textContent.trim().length > 0; })(document.getElementById('DivContent'))";
+    private static final String[] hiddenFieldIds = {"hidDocID", "hidCaseName", "hidCourt", "hidCaseNumber",
+            "hidCaseInfo", "hidCaseType", "HidCourtID"};
+
+    /**
+     * 直接使用文书页自己请求CreateContentJS的返回数据 (CDP抓取), 不再等待和解析页面元素
+     * @param url 任务的文书页url, 只使用与url中DocID一致的数据
+     * @return false表示没有抓到有效数据, 调用方改用load()从页面抓取
+     */
+    public static boolean loadByCapture(NetworkCapture capture, String url) {
+        String docId = getDocIdFromUrl(url);
+        if (docId == null || !APIScheduler.isValidDocId(docId))
+            return false;
+
+        NetworkCapture.Captured captured = capture.poll(NetworkCapture.CREATE_CONTENT_JS,
+                item -> docId.equalsIgnoreCase(item.urlParam("DocID")), waitingForDivContent * 1000L);
+        if (captured == null) {
+            logger.info("no doc content captured in {}s", waitingForDivContent);
+            return false;
+        }
+        if (MongoUtils.wenshuGotFinished(docId)) {
+            logger.info("doc {} already got finished.", docId);
+            return true;
+        }
+
+        return DocContentCrawler.saveCaptured(docId, captured.getBody()).isSucceed();
+    }
 
     /**
      * 使用网页方式抓取文书页
@@ -78,37 +103,30 @@ public class ContentPageCrawler {
         int maxTryTimes = 20;        // 最多尝试次数
         do {
             try {
-                WebDriverWait wait = new WebDriverWait(driver, waitingForDivContent);
-                WebElement hiddenElement = wait.until(ExpectedConditions.presenceOfElementLocated(By.id("hidDocID")));
-                String hidDocId = hiddenElement.getAttribute("value");
+                if (!PageReady.waitForId(driver, "hidDocID", waitingForDivContent * 1000L))
+                    throw new IllegalStateException("hidDocID not found");
+
+                // 所有隐藏字段一次取出
+                Map<String, String> fields = PageExtractor.hiddenFields(driver, hiddenFieldIds);
+                if (fields == null || !fields.keySet().containsAll(Arrays.asList(hiddenFieldIds)))
+                    throw new IllegalStateException("hidden fields not ready " + fields);
+
+                String hidDocId = fields.get("hidDocID");
                 if (!hidDocId.equalsIgnoreCase(docId)) {
                     logger.error("docId in url is not same as in content. {} - {}", docId, hidDocId);
                 }
 
-                hiddenElement = driver.findElement(By.id("hidCaseName"));
-                caseTitle = hiddenElement.getAttribute("value");
-
-                hiddenElement = driver.findElement(By.id("hidCourt"));
-                caseCourt = hiddenElement.getAttribute("value");
-
-                hiddenElement = driver.findElement(By.id("hidCaseNumber"));
-                caseNumber = hiddenElement.getAttribute("value");
-
-                hiddenElement = driver.findElement(By.id("hidCaseInfo"));
-                caseInfo = hiddenElement.getAttribute("value");
-
-                hiddenElement = driver.findElement(By.id("hidCaseType"));
-                String value = hiddenElement.getAttribute("value");
+                caseTitle = fields.get("hidCaseName");
+                caseCourt = fields.get("hidCourt");
+                caseNumber = fields.get("hidCaseNumber");
+                caseInfo = fields.get("hidCaseInfo");
                 try {
                     // 有的文档中案件类型是中文名字
-                    caseType = Integer.parseInt(value);
+                    caseType = Integer.parseInt(fields.get("hidCaseType"));
                 } catch (Exception e) {
                     caseType = 0;
                 }
-
-                hiddenElement = driver.findElement(By.id("HidCourtID"));
-                value = hiddenElement.getAttribute("value");
-                courtId = Integer.parseInt(value);
+                courtId = Integer.parseInt(fields.get("HidCourtID"));
 
                 break;
             } catch (Exception e) {
@@ -143,13 +161,15 @@ public class ContentPageCrawler {
         maxTryTimes = 40;        // 最多尝试次数
         do {
             try {
-                WebDriverWait wait = new WebDriverWait(driver, waitingForDivContent);
-                WebElement mainDiv = wait.until(ExpectedConditions.presenceOfElementLocated(By.id("DivContent")));
-
-                List<WebElement> contentsDiv = mainDiv.findElements(By.tagName("div"));
-                logger.debug("page div count is {}", contentsDiv.size());
-                for (WebElement element : contentsDiv) {
-                    String innerData = element.getAttribute("innerHTML");
+                // 等到DivContent中有文字内容
+                if (!PageReady.waitFor(driver, divContentReady, waitingForDivContent * 1000L))
+                    throw new IllegalStateException("DivContent not ready");
+
+                List<String> divs = PageExtractor.divContents(driver);
+                if (divs == null)
+                    throw new IllegalStateException("DivContent not ready");
+                logger.debug("page div count is {}", divs.size());
+                for (String innerData : divs) {
                     // 过滤掉html
                     if (innerData != null) {
                         innerData = innerData.replaceAll("<[^>]*>", "");
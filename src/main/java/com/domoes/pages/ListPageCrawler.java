@@ -1,6 +1,10 @@
 package com.domoes.pages;
 
 import com.domoes.APIs.APIScheduler;
+import com.domoes.APIs.APISession;
+import com.domoes.APIs.CanonicalParam;
+import com.domoes.APIs.CrawlFrontier;
+import com.domoes.APIs.ListContentCrawler;
 import com.domoes.APIs.ListParams;
 import com.domoes.Driver;
 import com.domoes.mongodb.MongoUtils;
@@ -26,16 +30,53 @@ import java.util.*;
 public class ListPageCrawler {
     private static final Logger logger = LoggerFactory.getLogger(ListPageCrawler.class);
     private static final int waitingForResultList = 30;     // 秒
+    // 列表区域已有文书, 或者显示了系统繁忙/没有数据的提示
+    private static final String listReadyCondition = "(function(list) { return list && (list.getElementsByClassName('dataItem').length > 0"
+            + " || list.innerHTML == '系统繁忙，请您稍后再试。' || list.innerHTML == '无符合条件的数据...'); })(document.getElementById('resultList'))";
 
-    private static List<String> itemIdList = new ArrayList<>();
-    private static Map<String, Map<String, String>> itemDescs = new HashMap<>();
+    /**
+     * 直接使用列表页自己请求ListContent接口的返回数据 (CDP抓取), 不再逐个打开文书和翻页
+     * 第1页的数据按API任务的方式解密和保存, 后面的页和拆分的查询条件生成API LIST任务
+     * @param session 当前任务借用的会话
+     * @param url 任务的列表页url, 只使用与url中查询条件一致的第1页数据
+     * @return false表示没有抓到有效数据, 调用方改用load()从页面抓取
+     */
+    public static boolean loadByCapture(TaskMQ mq, APISession session, NetworkCapture capture, String url) {
+        String urlParam = urlParam(url);
+        if (urlParam == null)
+            return false;
+        String expected = CanonicalParam.key(urlParam);
+
+        NetworkCapture.Captured captured = capture.poll(NetworkCapture.LIST_CONTENT, item -> {
+            // 表单中的Param是url编码的
+            return "1".equals(item.formValue("Index")) && expected.equals(CanonicalParam.ofDecoded(item.formValue("Param")));
+        }, waitingForResultList * 1000L);
+        if (captured == null) {
+            logger.info("no list content captured in {}s", waitingForResultList);
+            return false;
+        }
+
+        String data = captured.getBody();
+        String param = captured.formValue("Param");
+        String index = captured.formValue("Index");
+        if (param == null || index == null || data == null || data.startsWith("<") || data.toLowerCase().contains("remind")) {
+            logger.info("invalid captured list content. {} {}", captured.getUrl(), data);
+            return false;
+        }
+
+        logger.info("got captured list content, index {}", index);
+        return ListContentCrawler.handleData(session, mq, data, param, index);
+    }
 
     /**
      * 因为从搜索页跳转到列表页时, url是自己跳转的, 不是通过参数输入
      * 所以这里统一为已经完成navigate.to()
+     * @param driver 当前任务借用的会话的driver
      */
-    public static boolean load(TaskMQ mq) {
-        WebDriver driver = APIScheduler.getDriver();
+    public static boolean load(TaskMQ mq, WebDriver driver) {
+        // 多个会话会同时抓取列表页, 每次抓取使用自己的文书列表
+        Map<String, Map<String, String>> itemDescs = new HashMap<>();
+
         String url = driver.getCurrentUrl();
         logger.info("parse list page {}", url);
 
@@ -73,78 +114,59 @@ public class ListPageCrawler {
 
         int currentPage = 1;
         do {
-            itemIdList.clear();
-
             // 右侧列表区域
             // body > div main > div contentMiddle > div contentMain > div content > div list > div resultList
-            WebElement resultListDiv;
-            try {
-                // 列表页加载有时候比较慢, 超时时间设长一点
-                WebDriverWait wait = new WebDriverWait(driver, waitingForResultList);
-                resultListDiv = wait.until(ExpectedConditions.presenceOfElementLocated(By.id("resultList")));
-            } catch (Exception e) {
-                logger.warn("exception at get resultList div. {}", e.getMessage());
+            // 列表页加载有时候比较慢, 超时时间设长一点
+            if (!PageReady.waitForId(driver, "resultList", waitingForResultList * 1000L)) {
+                logger.warn("get resultList div failed. {}", url);
                 return currentPage > 1;
             }
 
-            // 等待列表内容加载出来
-            List<WebElement> dataItems = null;
-            int loopCount = 0;
-            do {
-                try {
-                    dataItems = resultListDiv.findElements(By.className("dataItem"));
-                } catch (Exception e) {
-                    if (e.getMessage().startsWith("stale element reference: element is not attached to the page document")) {
-                        logger.warn("exception at get dataItem element. js reloaded.");
-                        return false;
-                    }
+            // 等待列表内容加载出来 (出现文书或者提示信息时页面脚本立即返回), 整页的数据用一次脚本调用取出
+            if (!PageReady.waitFor(driver, listReadyCondition, waitingForResultList * 1000L))
+                logger.info("still waiting for get dataItems of url {} failed.", url);
+            PageExtractor.ListPage listPage = PageExtractor.listPage(driver);
+            if (listPage != null && listPage.getItems().isEmpty()) {
+                if ("系统繁忙，请您稍后再试。".equalsIgnoreCase(listPage.getText())) {
+                    // 系统繁忙, 不能刷新, 也不需要再等待, 直接翻页
+                    logger.info("system busy, try next page.");
+                } else if ("无符合条件的数据...".equalsIgnoreCase(listPage.getText())) {
+                    // 无符合条件的数据
+                    logger.info("no result for this search.");
+                    return true;
                 }
-                if (dataItems == null || dataItems.isEmpty()) {
-                    try {
-                        String text = resultListDiv.getAttribute("innerHTML");
-                        if (text.equalsIgnoreCase("系统繁忙，请您稍后再试。")) {
-                            // 系统繁忙, 不能刷新, 也不需要再等待, 直接翻页
-                            logger.info("system busy, try next page.");
-                            break;
-                        } else if (text.equalsIgnoreCase("无符合条件的数据...")) {
-                            // 无符合条件的数据
-                            logger.info("no result for this search.");
-                            return true;
-                        }
-                    } catch (Exception e) {
-                        logger.warn("exception at check system busy.");
-                    }
-
-                    if (loopCount % 50 == 0)
-                        logger.info("still waiting for get dataItems of url {} failed.", url);
-                    try { Thread.sleep(100); } catch (Exception e) { logger.warn("exception {}", e.getMessage()); }
-                } else
-                    break;
-            } while (loopCount++ < 300);
+            }
 
-            if (dataItems == null) {
+            List<Map<String, String>> items = listPage != null ? listPage.getItems() : Collections.emptyList();
+            if (listPage == null) {
                 logger.warn("get dataItems for url {} failed.", url);
             }
 
             // 在第一页时检查文档数量如果超过200, 尝试细化搜索项
             if (currentPage == 1) {
-                WebElement dataCountItem;
-                try {
-                    dataCountItem = driver.findElement(By.id("span_datacount"));
-                } catch (Exception e) {
+                String dataCountStr = listPage != null ? listPage.getDataCount() : null;
+                if (dataCountStr == null) {
                     logger.info("can't find data count element. retry this task later.");
                     return false;
                 }
 
                 try {
-                    String dataCountStr = dataCountItem.getAttribute("innerHTML");
                     logger.info("data count is {}", dataCountStr);
-                    if (dataCountStr != null && Integer.parseInt(dataCountStr) > 200) {
+                    int dataCount = dataCountStr != null ? Integer.parseInt(dataCountStr) : -1;
+                    List<String> conditions = urlConditions(url);
+                    if (dataCount >= 0 && conditions != null && !conditions.isEmpty())
+                        CrawlFrontier.crawled(String.join(",", conditions), 1, dataCount);
+
+                    if (dataCount > 200) {
                         List<List<String>> result = splitListPages(url);
 
                         if (result != null) {
-                            for (List<String> item : result) {
-                                String param = combineConditions(item);
+                            // 最近抓取过的子条件不再生成任务
+                            Map<String, List<String>> splits = new LinkedHashMap<>();
+                            for (List<String> item : result)
+                                splits.put(CanonicalParam.of(String.join(",", item)), item);
+                            for (String key : CrawlFrontier.needCrawl(new ArrayList<>(splits.keySet()), 1)) {
+                                String param = combineConditions(splits.get(key));
                                 String splitUrl = "http://wenshu.court.gov.cn/list/list/?sorttype=1&" + param;
                                 if (mq != null)
                                     mq.pushMessage(splitUrl.getBytes(), TaskMQ.TAG_LIST);
@@ -158,39 +180,28 @@ public class ListPageCrawler {
             }
 
             // 当前是第几页
-            try {
-                WebDriverWait wait = new WebDriverWait(driver, Driver.waitSecondsForElement);
-                WebElement docBottom = wait.until(ExpectedConditions.presenceOfElementLocated(By.id("docbottom")));
-
-                List<WebElement> current = docBottom.findElements(By.className("current"));
-                if (current == null || current.size() < 1)
-                    logger.warn("get current page failed.");
-                else {
-                    String page = current.get(current.size() - 1).getAttribute("innerHTML");
-                    logger.info("current page is {}, currentPage = {}", page, currentPage);
-                }
-            } catch (Exception e) {
-                logger.warn("get current page failed. {}", e.getMessage());
-            }
+            if (listPage == null || listPage.getCurrentPage() == null)
+                logger.warn("get current page failed.");
+            else
+                logger.info("current page is {}, currentPage = {}", listPage.getCurrentPage(), currentPage);
 
-            if (dataItems != null) {
-                for (WebElement element : dataItems) {
-                    getItemDesc(element);
-                }
-            }
+            for (Map<String, String> item : items)
+                addItemDesc(item, itemDescs);
 
             // 遍历每个item
             // 先检查该文书是否已获取, 再点击打开 (点击后会跳到新打开的tab, 需要切回来)
-            logger.info("itemIdList count {}", itemIdList.size());
-            for (String id : itemIdList) {
-                WebElement dataItem = getElementForItemId(driver, id);
-                if (dataItem == null)
-                    logger.warn("can't find dataItem {}", id);
+            logger.info("itemIdList count {}", items.size());
+            for (Map<String, String> item : items) {
+                String id = item.get("id");
+                String caseNumber = item.get("casenumber");
+                String title = item.get("title");
+                if (MongoUtils.wenshuGotFinished(caseNumber, title))
+                    logger.info("case {} already has detail content.", caseNumber);
                 else {
-                    String caseNumber = dataItem.getAttribute("casenumber");
-                    String title = dataItem.getAttribute("title");
-                    if (MongoUtils.wenshuGotFinished(caseNumber, title))
-                        logger.info("case {} already has detail content.", caseNumber);
+                    // 只有需要点开的文书才查找页面元素
+                    WebElement dataItem = getElementForItemId(driver, id);
+                    if (dataItem == null)
+                        logger.warn("can't find dataItem {}", id);
                     else {
                         WebElement href = getLinkElementForItemId(dataItem);
                         if (href != null) {
@@ -240,8 +251,7 @@ public class ListPageCrawler {
 
                     driver.switchTo().window(window);
 
-                    // 因为在打开每个文档页的时候已经做了限流计数, 所以这里在分析网页内容的时候不应该再计数, 直接传driver参数
-                    // getDriver()方法内部会再进行计数
+                    // 因为在打开每个文档页的时候已经做了限流计数, 所以这里在分析网页内容的时候不应该再计数
                     if (!ContentPageCrawler.load(mq, driver, itemDescs)) {
                         logger.info("get doc content failed, refresh tab {}", window);
                         // 刷新网页需要计数
@@ -280,58 +290,18 @@ public class ListPageCrawler {
         return true;
     }
 
-    // 获取文书的概要信息并入库
-    private static void getItemDesc(WebElement dataItem) {
-        try {
-            String id = dataItem.getAttribute("id");
-            String title = dataItem.getAttribute("title");                  // 案件标题
-            String casecourt = dataItem.getAttribute("casecourt");          // 所属法院
-            String casenumber = dataItem.getAttribute("casenumber");        // 案件编号 (可作主键)
-            String judgedate = dataItem.getAttribute("judgedate");          // 审判时间
-            String ajlx;                                                       // 案件类型 (可有多个, 用,分隔)
-
-            StringBuilder sb = new StringBuilder();
-            boolean addComma = false;
-            try {
-                List<WebElement> labelElements = dataItem.findElements(By.className("ajlx_lable"));
-                if (labelElements != null) {
-                    for (WebElement label : labelElements) {
-                        String data = label.getAttribute("innerHTML");
-                        if (addComma)
-                            sb.append(", ");
-                        else
-                            addComma = true;
-                        sb.append(data);
-                    }
-                }
-            } catch (Exception e) {
-                logger.warn("can't find ajlx_lable for element {}", casenumber);
-            }
-            ajlx = sb.toString();
-
-            // 检查是否有关联文书
-            String glws = "";
-            try {
-                WebElement glwsElement = dataItem.findElement(By.className("list-glws"));
-                WebElement glwsAElement = glwsElement.findElement(By.tagName("a"));
-                glws = glwsAElement.getAttribute("innerHTML");
-            } catch (Exception e) {
-                logger.debug("wenshu does not have glws.");
-            }
-
-            logger.info("find wenshu, id {}, casenumber {}", id, casenumber);
-            itemIdList.add(id);
-
-            Map<String, String> itemInfo = new HashMap<>();
-            itemInfo.put("title", title);
-            itemInfo.put("casecourt", casecourt);
-            itemInfo.put("judgedate", judgedate);
-            itemInfo.put("ajlx", ajlx);
-            itemInfo.put("glws", glws);
-            itemDescs.put(casenumber, itemInfo);
-        } catch (Exception e) {
-            logger.warn("exception at get item desc. {}", e.getMessage());
-        }
+    // 记录文书的概要信息, 打开文书页后入库时使用
+    private static void addItemDesc(Map<String, String> item, Map<String, Map<String, String>> itemDescs) {
+        String casenumber = item.get("casenumber");                         // 案件编号 (可作主键)
+        logger.info("find wenshu, id {}, casenumber {}", item.get("id"), casenumber);
+
+        Map<String, String> itemInfo = new HashMap<>();
+        itemInfo.put("title", item.get("title"));                          // 案件标题
+        itemInfo.put("casecourt", item.get("casecourt"));                  // 所属法院
+        itemInfo.put("judgedate", item.get("judgedate"));                  // 审判时间
+        itemInfo.put("ajlx", item.getOrDefault("ajlx", ""));               // 案件类型 (可有多个, 用,分隔)
+        itemInfo.put("glws", item.getOrDefault("glws", ""));               // 关联文书
+        itemDescs.put(casenumber, itemInfo);
     }
 
     private static WebElement getElementForItemId(WebDriver driver, String id) {
@@ -422,6 +392,31 @@ public class ListPageCrawler {
 
     // 将该列表任务拆分为更细的子任务
     static List<List<String>> splitListPages(String url) {
+        List<String> conditions = urlConditions(url);
+        if (conditions == null)
+            return null;
+
+        // 如果查询条件只有"案号", 对其做特殊处理, 案号只能再拆分审判程序和文书类型
+        if (conditions.size() == 1) {
+            String[] items = conditions.get(0).split(":");
+            if (items.length == 2 && items[0].equals("案号")) {
+                return ListParams.subdivideRequestsForCasenumber(conditions);
+            }
+        }
+
+        return ListParams.subdivideRequests(conditions);
+    }
+
+    // 列表页url中的查询条件, 用","连接, 没有查询条件时返回null
+    public static String urlParam(String url) {
+        List<String> conditions = urlConditions(url);
+        if (conditions == null || conditions.isEmpty())
+            return null;
+        return String.join(",", conditions);
+    }
+
+    // url中的查询条件, 每项为"关键字:值"
+    private static List<String> urlConditions(String url) {
         int index = url.indexOf("conditions");
         if (index < 0) {
             logger.warn("can't find conditions in url {}", url);
@@ -443,26 +438,14 @@ public class ListPageCrawler {
                     conditions.add(items[4]);
             }
         }
-
-        // 如果查询条件只有"案号", 对其做特殊处理, 案号只能再拆分审判程序和文书类型
-        if (conditions.size() == 1) {
-            String[] items = conditions.get(0).split(":");
-            if (items.length == 2 && items[0].equals("案号")) {
-                return ListParams.subdivideRequestsForCasenumber(conditions);
-            }
-        }
-
-        return ListParams.subdivideRequests(conditions);
+        return conditions;
     }
 
+    // 条件按关键字排序, 同样的查询生成同样的url
     public static String combineConditions(List<String> params) {
         List<String> conditions = new ArrayList<>();
-        for (String item : params) {
-            String[] datas = item.split(":");
-            if (datas.length != 2) {
-                logger.warn("invalid condition {}", item);
-                continue;
-            }
+        for (Map.Entry<String, String> entry : CanonicalParam.parse(String.join(",", params)).entrySet()) {
+            String[] datas = {entry.getKey(), entry.getValue()};
 
             // 全文检索和案件类型需要特殊处理
             String value;
@@ -3,7 +3,6 @@ package com.domoes.pages;
 import com.domoes.Driver;
 import com.domoes.kafka.TaskMQ;
 import org.openqa.selenium.By;
-import org.openqa.selenium.StaleElementReferenceException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.interactions.Actions;
@@ -24,6 +23,7 @@ public class MainPageCrawler {
     private static final String MAINPAGE_URL = "http://wenshu.court.gov.cn";
 
     private static final Logger logger = LoggerFactory.getLogger(MainPageCrawler.class);
+    private static final long waitingForReload = 2000;     // 点击省份后等待页面刷新的时间, 毫秒
     private static TaskMQ mqEngine = null;
 
     public static void parsePage(WebDriver driver, TaskMQ mq) {
@@ -101,20 +101,12 @@ public class MainPageCrawler {
 
                 // 注意
                 // 由于点击按钮后DOM会刷新, 但是页面元素并没有显示和隐藏的变化, 无法通过wait.presenceOfElementLocated来判断是否加载完成
-                // 这里采用的方法是: 判断一个element是否出现 stale element reference 异常, 出现该异常表示页面已刷新 (但可能未刷新完成)
+                // 这里采用的方法是: 等待原来的element从页面上移除 (页面中的MutationObserver通知), 表示页面已刷新 (但可能未刷新完成)
                 // 有些省份点击后就是不会刷新页面 (比如香港、澳门、台湾)
-                int loop = 0;
-                int maxLoop = 200;
-                do {
-                    try {
-                        mapDiv.findElement(By.tagName("div"));
-                        if (loop % 100 == 0)
-                            logger.info("page has not reloaded. loop = {}", loop);
-                    } catch (StaleElementReferenceException e) {
-                        logger.info("get stale element reference exception, page already reloaded.");
-                        break;
-                    }
-                } while (loop ++ < maxLoop);
+                if (PageReady.waitForDetached(driver, mapDiv, waitingForReload))
+                    logger.info("page already reloaded.");
+                else
+                    logger.info("page has not reloaded in {}ms.", waitingForReload);
 
                 getProvinceCourts(driver, province);
                 break;
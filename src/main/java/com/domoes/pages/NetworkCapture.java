@@ -0,0 +1,238 @@
+package com.domoes.pages;
+
+import com.google.common.collect.ImmutableMap;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.devtools.Command;
+import org.openqa.selenium.devtools.DevTools;
+import org.openqa.selenium.devtools.Event;
+import org.openqa.selenium.json.Json;
+import org.openqa.selenium.json.JsonInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Created by liufei on 2019/7/30.
+ * 通过Chrome DevTools Protocol抓取页面自己发出的ListContent和CreateContentJS请求的返回数据
+ *   requestWillBeSent时记下要抓取的请求, loadingFinished后再用Network.getResponseBody取返回内容
+ *   事件在websocket线程中回调, 不能在回调里等待命令结果, 取内容的请求放到单独的线程中
+ *   每次clear()后进入新的一代, 之前页面的请求即使在clear()之后才返回也会丢弃
+ *   会话关闭driver前调用release(), 关闭DevTools连接和取内容的线程
+ *   只支持本地ChromeDriver (RemoteWebDriver没有getDevTools), 不支持时返回null, 调用方使用原来的页面抓取
+ */
+public class NetworkCapture {
+    private static final Logger logger = LoggerFactory.getLogger(NetworkCapture.class);
+
+    public static final String LIST_CONTENT = "/List/ListContent";
+    public static final String CREATE_CONTENT_JS = "/CreateContentJS/CreateContentJS.aspx";
+    private static final int maxCaptured = 100;
+
+    private static volatile boolean enabled = false;
+    private static final Map<WebDriver, NetworkCapture> captures = new ConcurrentHashMap<>();
+
+    private final DevTools devTools;
+    private final Map<String, Captured> pending = new ConcurrentHashMap<>();         // requestId -> 请求
+    private final BlockingQueue<Captured> captured = new LinkedBlockingQueue<>(maxCaptured);
+    private final ExecutorService bodyExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "network-capture");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger generation = new AtomicInteger();
+
+    // 抓到的一个请求
+    public static class Captured {
+        private final String url;
+        private final String postData;
+        private final int generation;
+        private String body;
+
+        Captured(String url, String postData) {
+            this(url, postData, 0);
+        }
+
+        Captured(String url, String postData, int generation) {
+            this.url = url;
+            this.postData = postData;
+            this.generation = generation;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        // post表单中的字段, 保持url编码, 没有该字段时返回null
+        public String formValue(String name) {
+            if (postData == null)
+                return null;
+            for (String item : postData.split("&")) {
+                int index = item.indexOf('=');
+                if (index > 0 && item.substring(0, index).equals(name))
+                    return item.substring(index + 1);
+            }
+            return null;
+        }
+
+        // url参数, 已解码
+        public String urlParam(String name) {
+            int begin = url.indexOf(name + "=");
+            if (begin < 0)
+                return null;
+            int end = url.indexOf('&', begin);
+            String value = end < 0 ? url.substring(begin + name.length() + 1) : url.substring(begin + name.length() + 1, end);
+            try {
+                return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+            } catch (Exception e) {
+                return value;
+            }
+        }
+    }
+
+    // 是否启用CDP抓取
+    public static void setEnabled(boolean enabled) {
+        logger.info("cdp network capture enabled = {}", enabled);
+        NetworkCapture.enabled = enabled;
+    }
+
+    // 获取driver对应的抓取器, 第一次使用时创建, 未启用或不支持时返回null
+    public static NetworkCapture of(WebDriver driver) {
+        if (!enabled || !(driver instanceof ChromeDriver))
+            return null;
+        NetworkCapture capture = captures.get(driver);
+        if (capture != null)
+            return capture;
+
+        try {
+            capture = new NetworkCapture(((ChromeDriver) driver).getDevTools());
+        } catch (Exception e) {
+            logger.warn("create cdp network capture failed, use page crawler. {}", e.getMessage());
+            enabled = false;
+            return null;
+        }
+        captures.put(driver, capture);
+        return capture;
+    }
+
+    // driver关闭前释放对应的抓取器
+    public static void release(WebDriver driver) {
+        NetworkCapture capture = driver != null ? captures.remove(driver) : null;
+        if (capture != null)
+            capture.close();
+    }
+
+    private void close() {
+        bodyExecutor.shutdownNow();
+        pending.clear();
+        captured.clear();
+        try {
+            devTools.close();
+        } catch (Exception e) {
+            logger.warn("exception at close devtools. {}", e.getMessage());
+        }
+    }
+
+    private NetworkCapture(DevTools devTools) {
+        this.devTools = devTools;
+        devTools.createSession();
+        devTools.addListener(event("Network.requestWillBeSent"), this::onRequest);
+        devTools.addListener(event("Network.loadingFinished"), this::onFinished);
+        devTools.addListener(event("Network.loadingFailed"), params -> pending.remove(String.valueOf(params.get("requestId"))));
+        devTools.send(new Command<Void>("Network.enable", ImmutableMap.of()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Event<Map<String, Object>> event(String method) {
+        Function<JsonInput, Map<String, Object>> mapper = input -> input.read(Json.MAP_TYPE);
+        return new Event<>(method, mapper);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onRequest(Map<String, Object> params) {
+        Object request = params.get("request");
+        if (!(request instanceof Map))
+            return;
+        Map<String, Object> req = (Map<String, Object>) request;
+        String url = String.valueOf(req.get("url"));
+        if (url.contains(LIST_CONTENT) || url.contains(CREATE_CONTENT_JS)) {
+            Object postData = req.get("postData");
+            pending.put(String.valueOf(params.get("requestId")),
+                    new Captured(url, postData != null ? postData.toString() : null, generation.get()));
+        }
+    }
+
+    private void onFinished(Map<String, Object> params) {
+        String requestId = String.valueOf(params.get("requestId"));
+        Captured item = pending.remove(requestId);
+        if (item != null)
+            bodyExecutor.execute(() -> fetchBody(requestId, item));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fetchBody(String requestId, Captured item) {
+        try {
+            Map<String, Object> result = devTools.send(new Command<Map<String, Object>>("Network.getResponseBody",
+                    ImmutableMap.of("requestId", requestId), Json.MAP_TYPE));
+            String body = String.valueOf(result.get("body"));
+            if (Boolean.TRUE.equals(result.get("base64Encoded")))
+                body = new String(Base64.getDecoder().decode(body), StandardCharsets.UTF_8);
+            item.body = body;
+
+            // 取内容期间已经打开了新页面
+            if (item.generation != generation.get()) {
+                logger.debug("discard response of previous page. {}", item.getUrl());
+                return;
+            }
+
+            // 队列满时丢掉最早的
+            while (!captured.offer(item))
+                captured.poll();
+        } catch (Exception e) {
+            logger.warn("get response body failed. {} {}", item.getUrl(), e.getMessage());
+        }
+    }
+
+    // 清空之前抓到的数据, 打开新页面前调用
+    public void clear() {
+        generation.incrementAndGet();
+        pending.clear();
+        captured.clear();
+    }
+
+    /**
+     * 等待指定请求的返回数据
+     * @param path 请求路径, 如LIST_CONTENT
+     * @param matcher 检查是否为当前任务的请求, 不是的丢弃
+     * @param timeoutMillis 最长等待时间
+     * @return 超时返回null
+     */
+    public Captured poll(String path, Predicate<Captured> matcher, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            long wait;
+            while ((wait = deadline - System.currentTimeMillis()) > 0) {
+                Captured item = captured.poll(wait, TimeUnit.MILLISECONDS);
+                if (item == null || item.generation != generation.get() || !item.getUrl().contains(path))
+                    continue;
+                if (matcher.test(item))
+                    return item;
+                logger.info("discard captured response of other task. {}", item.getUrl());
+            }
+        } catch (InterruptedException e) {
+            logger.warn("interrupted at wait for captured response. {}", e.getMessage());
+        }
+        return null;
+    }
+}
@@ -19,12 +19,12 @@ public class NormalSearchCrawler {
     private static final Logger logger = LoggerFactory.getLogger(NormalSearchCrawler.class);
 
     private static final int waitingForSearchTools = 3;
-    private static final int sleepingForNextPage = 50;
+    private static final long waitingForNextPage = 50000;     // 毫秒
 
-    public static void search(TaskMQ mq, String keyword) {
-        WebDriver driver = APIScheduler.getDriver();
+    public static void search(TaskMQ mq, WebDriver driver, String keyword) {
         try {
             // 在列表页做搜索操作
+            APIScheduler.acquireRateLimit();
             driver.navigate().to(APIScheduler.cookiePageUrl);
             String lastUrl = driver.getCurrentUrl();
 
@@ -45,24 +45,14 @@ public class NormalSearchCrawler {
             logger.info("clicked search button.");
 
             // 点击搜索后会跳转到list页面, 等待url跳转
-            // 页面跳转很快, 但是搜索页的内容加载会比较慢, 所以不断检查url有没有变化
-            int loopCount = 0;
-            do {
-                String url = driver.getCurrentUrl();
-                if (!url.equalsIgnoreCase(lastUrl))
-                    break;
-
-                try {
-                    Thread.sleep(sleepingForNextPage);
-                } catch (Exception e) {
-                    logger.warn("exception at waiting for new page. {}", e.getMessage());
-                }
-            } while (loopCount++ < 1000);
+            // 页面跳转很快, 但是搜索页的内容加载会比较慢, 由页面的pagehide等事件通知跳转, 不再反复检查url
+            if (!PageReady.waitForUrlChange(driver, lastUrl, waitingForNextPage))
+                logger.warn("search page has not jumped to list page in {}ms.", waitingForNextPage);
         } catch (Exception e) {
             logger.warn("exception at get search element. {}", e.getMessage());
             return;
         }
 
-        ListPageCrawler.load(mq);
+        ListPageCrawler.load(mq, driver);
     }
 }
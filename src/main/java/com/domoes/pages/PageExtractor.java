@@ -0,0 +1,162 @@
+package com.domoes.pages;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Created by liufei on 2019/7/31.
+ * 用一次executeScript取出整页需要的数据, 代替逐个元素的findElement/getAttribute调用
+ *   列表页: 每条文书的id, 标题, 法院, 案号, 裁判日期, 案件类型, 关联文书, 以及文书数量和当前页码
+ *   文书页: 隐藏字段的值和DivContent中每个div的内容
+ *   脚本返回JSON串, 页面元素还没有加载出来时返回null
+ */
+class PageExtractor {
+    private static final Logger logger = LoggerFactory.getLogger(PageExtractor.class);
+
+    private static final String listPageScript =
+            "var list = document.getElementById('resultList');" +
+            "if (!list) return null;" +
+            "var count = document.getElementById('span_datacount');" +
+            "var current = document.querySelectorAll('#docbottom .current');" +
+            "var nodes = list.getElementsByClassName('dataItem');" +
+            "var items = [];" +
+            "for (var i = 0; i < nodes.length; i++) {" +
+            "  var node = nodes[i];" +
+            "  var labels = node.getElementsByClassName('ajlx_lable');" +
+            "  var ajlx = [];" +
+            "  for (var j = 0; j < labels.length; j++) ajlx.push(labels[j].innerHTML);" +
+            "  var glws = node.querySelector('.list-glws a');" +
+            "  items.push({id: node.getAttribute('id'), title: node.getAttribute('title')," +
+            "    casecourt: node.getAttribute('casecourt'), casenumber: node.getAttribute('casenumber')," +
+            "    judgedate: node.getAttribute('judgedate'), ajlx: ajlx.join(', '), glws: glws ? glws.innerHTML : ''});" +
+            "}" +
+            "return JSON.stringify({count: count ? count.innerHTML : null," +
+            "  page: current.length > 0 ? current[current.length - 1].innerHTML : null," +
+            "  text: items.length > 0 ? '' : list.innerHTML, items: items});";
+
+    private static final String hiddenFieldsScript =
+            "var result = {};" +
+            "for (var i = 0; i < arguments[0].length; i++) {" +
+            "  var element = document.getElementById(arguments[0][i]);" +
+            "  if (element) result[arguments[0][i]] = element.value;" +
+            "}" +
+            "return JSON.stringify(result);";
+
+    private static final String divContentsScript =
+            "var main = document.getElementById('DivContent');" +
+            "if (!main) return null;" +
+            "var divs = main.getElementsByTagName('div');" +
+            "var result = [];" +
+            "for (var i = 0; i < divs.length; i++) result.push(divs[i].innerHTML);" +
+            "return JSON.stringify(result);";
+
+    // 列表页上的数据
+    static class ListPage {
+        private final String dataCount;
+        private final String currentPage;
+        private final String text;
+        private final List<Map<String, String>> items;
+
+        ListPage(String dataCount, String currentPage, String text, List<Map<String, String>> items) {
+            this.dataCount = dataCount;
+            this.currentPage = currentPage;
+            this.text = text;
+            this.items = items;
+        }
+
+        // span_datacount的内容, 没有该元素时为null
+        String getDataCount() {
+            return dataCount;
+        }
+
+        String getCurrentPage() {
+            return currentPage;
+        }
+
+        // 没有文书时resultList的内容 (系统繁忙, 无符合条件的数据等提示)
+        String getText() {
+            return text;
+        }
+
+        // 每条文书的信息, key为id, title, casecourt, casenumber, judgedate, ajlx, glws
+        List<Map<String, String>> getItems() {
+            return items;
+        }
+    }
+
+    // 取列表页数据, resultList还没有加载出来或脚本执行失败时返回null
+    static ListPage listPage(WebDriver driver) {
+        String json = execute(driver, listPageScript);
+        return json != null ? parseListPage(json) : null;
+    }
+
+    static ListPage parseListPage(String json) {
+        try {
+            JSONObject page = JSON.parseObject(json);
+            List<Map<String, String>> items = new ArrayList<>();
+            JSONArray array = page.getJSONArray("items");
+            if (array != null) {
+                for (int i = 0; i < array.size(); i++) {
+                    JSONObject item = array.getJSONObject(i);
+                    Map<String, String> info = new HashMap<>();
+                    for (String key : item.keySet())
+                        info.put(key, item.getString(key));
+                    items.add(info);
+                }
+            }
+            return new ListPage(page.getString("count"), page.getString("page"), page.getString("text"), items);
+        } catch (Exception e) {
+            logger.warn("invalid list page data. {}", e.getMessage());
+            return null;
+        }
+    }
+
+    // 取隐藏字段的值, 页面上没有的字段不在结果中; 脚本执行失败时返回null
+    static Map<String, String> hiddenFields(WebDriver driver, String... ids) {
+        String json = execute(driver, hiddenFieldsScript, Arrays.asList(ids));
+        if (json == null)
+            return null;
+
+        try {
+            Map<String, String> result = new HashMap<>();
+            JSONObject fields = JSON.parseObject(json);
+            for (String key : fields.keySet())
+                result.put(key, fields.getString(key));
+            return result;
+        } catch (Exception e) {
+            logger.warn("invalid hidden fields data. {}", e.getMessage());
+            return null;
+        }
+    }
+
+    // 取DivContent中每个div的innerHTML, 没有DivContent时返回null
+    static List<String> divContents(WebDriver driver) {
+        String json = execute(driver, divContentsScript);
+        if (json == null)
+            return null;
+
+        try {
+            return JSON.parseArray(json, String.class);
+        } catch (Exception e) {
+            logger.warn("invalid div content data. {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static String execute(WebDriver driver, String script, Object... args) {
+        try {
+            Object result = ((JavascriptExecutor) driver).executeScript(script, args);
+            return result != null ? result.toString() : null;
+        } catch (Exception e) {
+            logger.warn("exception at execute extract script. {}", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.domoes.pages;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by liufei on 2019/7/31.
+ * 等待页面内容就绪, 代替sleep和反复查询页面元素的轮询
+ *   在页面中用executeAsyncScript注册MutationObserver和readystatechange, 条件满足时脚本立即返回, 超时返回false
+ *   条件为js表达式, 可以用args[1]...引用传入的参数
+ *   等待url变化时监听pagehide/hashchange/popstate, 页面卸载时异步脚本会以异常结束, 再检查一次url即可
+ */
+public class PageReady {
+    private static final Logger logger = LoggerFactory.getLogger(PageReady.class);
+    private static final long scriptTimeoutMargin = 2000;      // 脚本超时比等待时间多留一点, 毫秒
+
+    private static final String waitScript =
+            "var callback = arguments[arguments.length - 1];" +
+            "var args = arguments;" +
+            "function ready() { try { return !!(CONDITION); } catch (e) { return false; } }" +
+            "if (ready()) { callback(true); return; }" +
+            "var done = false;" +
+            "var observer = new MutationObserver(check);" +
+            "var timer = setTimeout(function() { finish(ready()); }, args[0]);" +
+            "function check() { if (!done && ready()) finish(true); }" +
+            "function finish(result) {" +
+            "  if (done) return;" +
+            "  done = true;" +
+            "  observer.disconnect();" +
+            "  clearTimeout(timer);" +
+            "  document.removeEventListener('readystatechange', check);" +
+            "  callback(result);" +
+            "}" +
+            "observer.observe(document, {childList: true, subtree: true, attributes: true, characterData: true});" +
+            "document.addEventListener('readystatechange', check);";
+
+    private static final String urlChangeScript =
+            "var callback = arguments[arguments.length - 1];" +
+            "var timeout = arguments[0];" +
+            "var lastUrl = arguments[1].toLowerCase();" +
+            "function changed() { return location.href.toLowerCase() != lastUrl; }" +
+            "if (changed()) { callback(true); return; }" +
+            "var done = false;" +
+            "function finish(result) { if (!done) { done = true; callback(result); } }" +
+            "window.addEventListener('hashchange', function() { if (changed()) finish(true); });" +
+            "window.addEventListener('popstate', function() { if (changed()) finish(true); });" +
+            "window.addEventListener('pagehide', function() { finish(true); });" +
+            "setTimeout(function() { finish(changed()); }, timeout);";
+
+    /**
+     * 等待条件满足
+     * @param condition js表达式, 如 "document.getElementById('resultList')"
+     * @param timeoutMillis 最长等待时间
+     * @param args 条件中用args[1]...引用的参数
+     * @return 超时或脚本执行失败时返回false
+     */
+    public static boolean waitFor(WebDriver driver, String condition, long timeoutMillis, Object... args) {
+        try {
+            return run(driver, condition, timeoutMillis, args);
+        } catch (Exception e) {
+            logger.warn("exception at wait for page ready. {}", e.getMessage());
+            return false;
+        }
+    }
+
+    // 等待指定id的元素出现
+    public static boolean waitForId(WebDriver driver, String id, long timeoutMillis) {
+        return waitFor(driver, "document.getElementById(args[1])", timeoutMillis, id);
+    }
+
+    // 等待元素从页面上移除 (DOM刷新), 元素已经失效时直接返回true
+    public static boolean waitForDetached(WebDriver driver, WebElement element, long timeoutMillis) {
+        try {
+            return run(driver, "!document.contains(args[1])", timeoutMillis, element);
+        } catch (StaleElementReferenceException e) {
+            return true;
+        } catch (Exception e) {
+            logger.warn("exception at wait for element detached. {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 等待页面url变化 (跳转到新页面)
+     * @param lastUrl 当前的url, 不区分大小写
+     * @return 超时返回false
+     */
+    public static boolean waitForUrlChange(WebDriver driver, String lastUrl, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remain;
+        while ((remain = deadline - System.currentTimeMillis()) > 0) {
+            try {
+                setScriptTimeout(driver, remain);
+                if (Boolean.TRUE.equals(((JavascriptExecutor) driver).executeAsyncScript(urlChangeScript, remain, lastUrl)))
+                    return true;
+            } catch (Exception e) {
+                // 页面卸载时脚本以异常结束, 这正是要等待的事件
+                logger.debug("wait for url change interrupted. {}", e.getMessage());
+            }
+
+            try {
+                if (!driver.getCurrentUrl().equalsIgnoreCase(lastUrl))
+                    return true;
+                // 新页面还没有提交, 稍等一下再注册监听
+                Thread.sleep(50);
+            } catch (Exception e) {
+                logger.warn("exception at check url change. {}", e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    private static boolean run(WebDriver driver, String condition, long timeoutMillis, Object... args) {
+        Object[] scriptArgs = new Object[args.length + 1];
+        scriptArgs[0] = timeoutMillis;
+        System.arraycopy(args, 0, scriptArgs, 1, args.length);
+
+        setScriptTimeout(driver, timeoutMillis);
+        Object result = ((JavascriptExecutor) driver).executeAsyncScript(waitScript.replace("CONDITION", condition), scriptArgs);
+        return Boolean.TRUE.equals(result);
+    }
+
+    private static void setScriptTimeout(WebDriver driver, long timeoutMillis) {
+        driver.manage().timeouts().setScriptTimeout(timeoutMillis + scriptTimeoutMargin, TimeUnit.MILLISECONDS);
+    }
+}
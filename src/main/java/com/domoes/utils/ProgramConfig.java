@@ -3,6 +3,7 @@ package com.domoes.utils;
 import com.alibaba.edas.acm.ConfigService;
 import com.alibaba.edas.acm.exception.ConfigException;
 import com.alibaba.edas.acm.listener.PropertiesListener;
+import com.domoes.kafka.TaskMQ;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,6 +28,10 @@ public class ProgramConfig {
     private static boolean switchIp;
     private static boolean ignoreListTask;
     private static boolean ignoreApiTask;
+    private static int sessionCount;
+    private static boolean localDecrypt;
+    private static boolean cdpCapture;
+    private static int listInFlight;
 
     public static boolean parse() {
         String acmAccessKey;
@@ -111,6 +116,10 @@ public class ProgramConfig {
         headless = Boolean.parseBoolean(driverProps.getProperty("headless", "false"));
         rateLimit = Double.parseDouble(driverProps.getProperty("rateLimit", "5"));
         switchIp = Boolean.parseBoolean(driverProps.getProperty("switchIp", "false"));
+        sessionCount = Integer.parseInt(driverProps.getProperty("sessionCount", "1"));
+        localDecrypt = Boolean.parseBoolean(driverProps.getProperty("localDecrypt", "true"));
+        listInFlight = Integer.parseInt(driverProps.getProperty("listInFlight", "4"));
+        cdpCapture = Boolean.parseBoolean(driverProps.getProperty("cdpCapture", "false"));
 
         ignoreListTask = Boolean.parseBoolean(driverProps.getProperty("ignoreListTask", "false"));
         ignoreApiTask = Boolean.parseBoolean(driverProps.getProperty("ignoreApiTask", "false"));
@@ -122,6 +131,8 @@ public class ProgramConfig {
                 switchIp = Boolean.parseBoolean(System.getProperty("switchIp"));
             if (System.getProperty("headless") != null)
                 headless = Boolean.parseBoolean(System.getProperty("headless"));
+            if (System.getProperty("sessionCount") != null)
+                sessionCount = Integer.parseInt(System.getProperty("sessionCount"));
         } catch (Exception e) {
             logger.warn("system variable switchIp or headless invalid. {}, {}", System.getProperty("switchIp"), driverProps.getProperty("headless"));
         }
@@ -141,6 +152,52 @@ public class ProgramConfig {
         return headless;
     }
 
+    // 同时运行的浏览器会话数量
+    public static int getSessionCount() {
+        return sessionCount;
+    }
+
+    // 是否使用本地js引擎解密列表数据 (不再通过chrome执行)
+    public static boolean isLocalDecrypt() {
+        return localDecrypt;
+    }
+
+    // 网页方式抓取时是否通过CDP直接取列表和文书接口的返回数据 (只支持本地chrome)
+    public static boolean isCdpCapture() {
+        return cdpCapture;
+    }
+
+    // 同时处理中的列表API任务数量, 小于等于1时同步处理
+    public static int getListInFlight() {
+        return listInFlight;
+    }
+
+    // 每种任务的工作线程数量, 配置项为 workers.<tag>
+    // API列表任务不占用浏览器 (流水线方式时只是提交请求), 默认2个线程; API文书任务优先走http, 默认4个线程
+    // 其它任务需要借用浏览器会话, 默认与会话数量一致
+    public static int getWorkerCount(String tag) {
+        String defaultCount;
+        switch (tag) {
+            case TaskMQ.TAG_API_LIST:
+                defaultCount = "2";
+                break;
+            case TaskMQ.TAG_API_DOC:
+                defaultCount = "4";
+                break;
+            default:
+                defaultCount = String.valueOf(sessionCount);
+                break;
+        }
+
+        try {
+            return Integer.parseInt(driverProps.getProperty("workers." + tag, defaultCount));
+        } catch (Exception e) {
+            logger.warn("invalid worker count for {}. {}", tag, e.getMessage());
+            return Integer.parseInt(defaultCount);
+        }
+    }
+
+    // 多个代理用,分隔
     public static String getProxyIpAndPort() {
         return driverProps.getProperty("proxyIpAndPort", "10.0.0.18:3128");
     }
@@ -149,6 +206,15 @@ public class ProgramConfig {
         return rateLimit;
     }
 
+    // 每个会话接口请求速率的调整范围, 默认为rateLimit的1/10到4倍
+    public static double getMinRateLimit() {
+        return parseDouble(driverProps, "minRateLimit", rateLimit / 10);
+    }
+
+    public static double getMaxRateLimit() {
+        return parseDouble(driverProps, "maxRateLimit", rateLimit * 4);
+    }
+
     public static boolean isSwitchIp() {
         return switchIp;
     }
@@ -165,6 +231,11 @@ public class ProgramConfig {
         return mongoProps.getProperty("mongoCollection", "wenshu");
     }
 
+    // 已获取内容的文书过滤器的快照文件, 为空表示不保存快照
+    public static String getFinishedFilterFile() {
+        return mongoProps.getProperty("finishedFilterFile", "finishedfilter.bin");
+    }
+
     public static String getKafkaServerAddr() {
         return kafkaProps.getProperty("kafkaServerAddr", "10.0.0.18:9092");
     }
@@ -173,6 +244,88 @@ public class ProgramConfig {
         return kafkaProps.getProperty("kafkaTopic", "courtcrawls");
     }
 
+    // 每种任务使用单独的topic (kafkaTopic.tag) 和consumer group, false时所有任务共用kafkaTopic
+    public static boolean isTopicPerTag() {
+        return Boolean.parseBoolean(kafkaProps.getProperty("topicPerTag", "true"));
+    }
+
+    // 文书任务积压超过这个数量时暂停拉取列表任务, 0表示不限制 (只在topicPerTag时有效)
+    public static long getDocLagLimit() {
+        try {
+            return Long.parseLong(kafkaProps.getProperty("docLagLimit", "5000"));
+        } catch (Exception e) {
+            logger.warn("invalid docLagLimit. {}", e.getMessage());
+            return 5000;
+        }
+    }
+
+    // 切换代理出口ip的地址 (通过代理访问)
+    public static String getProxySwitchUrl() {
+        return driverProps.getProperty("proxySwitchUrl", "http://proxy.abuyun.com/switch-ip");
+    }
+
+    // 出口ip评分 (0~1) 低于该值时淘汰并切换ip
+    public static double getProxyMinScore() {
+        return parseDouble(driverProps, "proxyMinScore", 0.5);
+    }
+
+    // 会话参数 (cookie, guid/vl5x) 的最长使用时间, 超过后在后台提前刷新, 0表示不按时间刷新
+    public static long getTokenMaxAgeSeconds() {
+        return parseInt(driverProps, "tokenMaxAgeSeconds", 600);
+    }
+
+    // 会话参数的失败率 (remind key, 访问验证) 超过该值时在后台提前刷新, 0表示不按失败率刷新
+    public static double getTokenMaxFailureRate() {
+        return parseDouble(driverProps, "tokenMaxFailureRate", 0.2);
+    }
+
+    // 最近几年 (包含今年) 的列表查询多少天后重新抓取, 更早年份的查询多少天后重新抓取
+    public static int getFrontierRecentYears() {
+        return parseInt(driverProps, "frontierRecentYears", 2);
+    }
+
+    public static int getFrontierRecentDays() {
+        return parseInt(driverProps, "frontierRecentDays", 1);
+    }
+
+    public static int getFrontierStaleDays() {
+        return parseInt(driverProps, "frontierStaleDays", 30);
+    }
+
+    private static int parseInt(Properties props, String key, int defaultValue) {
+        try {
+            return Integer.parseInt(props.getProperty(key, String.valueOf(defaultValue)));
+        } catch (Exception e) {
+            logger.warn("invalid {}. {}", key, e.getMessage());
+            return defaultValue;
+        }
+    }
+
+    private static double parseDouble(Properties props, String key, double defaultValue) {
+        try {
+            return Double.parseDouble(props.getProperty(key, String.valueOf(defaultValue)));
+        } catch (Exception e) {
+            logger.warn("invalid {}. {}", key, e.getMessage());
+            return defaultValue;
+        }
+    }
+
+    // producer批量发送和压缩配置, 没有配置的项使用KafkaMQ中的默认值
+    public static Properties getProducerProps() {
+        Properties props = new Properties();
+        String[][] keys = {
+                {"producerLingerMs", "linger.ms"},
+                {"producerBatchSize", "batch.size"},
+                {"producerCompression", "compression.type"},       // lz4, zstd, none
+        };
+        for (String[] key : keys) {
+            String value = kafkaProps.getProperty(key[0]);
+            if (value != null && !value.isEmpty())
+                props.put(key[1], value);
+        }
+        return props;
+    }
+
     public static boolean isIgnoreListTask() {
         return ignoreListTask;
     }
@@ -1,7 +1,7 @@
 package com.domoes.utils;
 
 import com.domoes.APIs.APIScheduler;
-import com.domoes.APIs.ListParams;
+import com.domoes.APIs.CanonicalParam;
 import com.domoes.kafka.TaskMQ;
 
 import java.util.Map;
@@ -13,12 +13,13 @@ import java.util.Map;
 public class TaskPushUtil {
     // 添加API LIST类型的任务
     // 注意: 该接口是以json参数的方式进行添加, 不是添加url
+    // 查询条件统一为规范形式, 同样的查询生成同样的消息; 规范化会丢失信息的查询条件原样添加
     public static void pushAPIListTask(Map<String, String> params, TaskMQ mq, int index) {
-        String paramStr = APIScheduler.encodeValue(ListParams.joinParamMaps(params));
+        String paramStr = APIScheduler.encodeValue(CanonicalParam.of(params));
         pushAPIListTask(paramStr, mq, index);
     }
     public static void pushAPIListTask(String param, TaskMQ mq, int index) {
-        String json = String.format("{'Param': '%s', 'Index':'%d'}", param, index);
+        String json = String.format("{'Param': '%s', 'Index':'%d'}", CanonicalParam.ofEncoded(param), index);
         mq.pushMessage(json.getBytes(), TaskMQ.TAG_API_LIST);
     }
 
@@ -0,0 +1,37 @@
+package com.domoes.APIs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveRateLimiterTest {
+
+    @Test
+    public void increaseAndDecrease() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test", 5, 1, 6);
+
+        // 每次增加0.2/rate, 25次正常请求大约增加1
+        for (int i = 0; i < 25; i++)
+            limiter.succeeded();
+        Assert.assertEquals(6, limiter.getRate(), 0.1);
+
+        // 不超过最高速率
+        for (int i = 0; i < 100; i++)
+            limiter.succeeded();
+        Assert.assertEquals(6, limiter.getRate(), 0.001);
+
+        // 限流时减半, 同一时间的多次限流只减一次
+        limiter.throttled();
+        limiter.throttled();
+        Assert.assertEquals(3, limiter.getRate(), 0.001);
+    }
+
+    @Test
+    public void minRate() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test", 1.5, 1, 10);
+        limiter.throttled();
+        Assert.assertEquals(1, limiter.getRate(), 0.001);
+
+        // 初始速率超出范围时取边界值
+        Assert.assertEquals(10, new AdaptiveRateLimiter("test", 20, 1, 10).getRate(), 0.001);
+    }
+}
@@ -0,0 +1,74 @@
+package com.domoes.APIs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class CanonicalParamTest {
+
+    @Test
+    public void of() {
+        Assert.assertEquals("案件类型:民事案件,裁判年份:2018", CanonicalParam.of("裁判年份:2018,案件类型:民事案件"));
+        Assert.assertEquals(CanonicalParam.of("裁判年份:2018, 案件类型:民事案件"), CanonicalParam.of("案件类型:民事案件,裁判年份:2018"));
+        Assert.assertEquals(CanonicalParam.fingerprint("裁判年份:2018,案件类型:民事案件"), CanonicalParam.fingerprint("案件类型:民事案件,裁判年份:2018"));
+        Assert.assertNotEquals(CanonicalParam.fingerprint("裁判年份:2018"), CanonicalParam.fingerprint("裁判年份:2017"));
+    }
+
+    @Test
+    public void parse() {
+        // 只在第一个":"处拆分, 忽略格式不对的项
+        Map<String, String> params = CanonicalParam.parse("案号:（2019）京01民终1:2号,invalid,裁判日期:2018-01-01 TO 2018-01-31");
+        Assert.assertEquals(2, params.size());
+        Assert.assertEquals("（2019）京01民终1:2号", params.get("案号"));
+        Assert.assertEquals("2018-01-01 TO 2018-01-31", params.get("裁判日期"));
+    }
+
+    @Test
+    public void apiListKey() {
+        // 编码和顺序不同的同一查询
+        String a = String.format("{'Param': '%s', 'Index':'2'}", APIScheduler.encodeValue("裁判年份:2018,案件类型:民事案件"));
+        String b = "{\"Param\":\"%E6%A1%88%E4%BB%B6%E7%B1%BB%E5%9E%8B%3A%E6%B0%91%E4%BA%8B%E6%A1%88%E4%BB%B6%2C%E8%A3%81%E5%88%A4%E5%B9%B4%E4%BB%BD%3A2018\",\"Index\":\"2\"}";
+        Assert.assertNotNull(CanonicalParam.apiListKey(a));
+        Assert.assertEquals(CanonicalParam.apiListKey(a), CanonicalParam.apiListKey(b));
+        Assert.assertNull(CanonicalParam.apiListKey("not json"));
+    }
+
+    @Test
+    public void ofDecoded() {
+        // 浏览器抓到的表单Param与列表页url中的查询条件比较
+        String encoded = "%E6%A1%88%E4%BB%B6%E7%B1%BB%E5%9E%8B%3A%E6%B0%91%E4%BA%8B%E6%A1%88%E4%BB%B6%2C%E8%A3%81%E5%88%A4%E5%B9%B4%E4%BB%BD%3A2018";
+        Assert.assertEquals(CanonicalParam.of("裁判年份:2018,案件类型:民事案件"), CanonicalParam.ofDecoded(encoded));
+        Assert.assertNull(CanonicalParam.ofDecoded(null));
+    }
+
+    @Test
+    public void emptyParam() {
+        // 没有合法的查询条件时规范形式为空串, 任务指纹由调用方按消息内容计算
+        Assert.assertEquals("", CanonicalParam.of(""));
+        Assert.assertEquals("", CanonicalParam.of("abc,:1,key:"));
+        Assert.assertEquals("", CanonicalParam.of("关键词:a b"));
+        Assert.assertNull(CanonicalParam.apiListKey("{\"Param\":\"\",\"Index\":\"1\"}"));
+        Assert.assertNull(CanonicalParam.apiListKey("{\"Param\":\"abc%2C%3A1\",\"Index\":\"1\"}"));
+    }
+
+    @Test
+    public void lossyParamKeptAsIs() {
+        // 值中带空格的项和格式不对的项在规范化时会被丢掉, 这样的查询条件保持原样, 不能和更宽的查询共用指纹
+        String broad = "案件类型:民事案件";
+        String spaced = "案件类型:民事案件,关键词:借款 利息";
+        String fragment = "案件类型:民事案件,abc";
+        Assert.assertTrue(CanonicalParam.isLossless("裁判年份:2018, 案件类型:民事案件"));
+        Assert.assertFalse(CanonicalParam.isLossless(spaced));
+        Assert.assertFalse(CanonicalParam.isLossless(fragment));
+        Assert.assertFalse(CanonicalParam.isLossless("案件类型:民事案件,案件类型:刑事案件"));
+
+        Assert.assertNotEquals(CanonicalParam.fingerprint(broad), CanonicalParam.fingerprint(spaced));
+        Assert.assertNotEquals(CanonicalParam.fingerprint(broad), CanonicalParam.fingerprint(fragment));
+
+        String encoded = APIScheduler.encodeValue(spaced);
+        Assert.assertEquals(encoded, CanonicalParam.ofEncoded(encoded));
+        Assert.assertEquals(APIScheduler.encodeValue("案件类型:民事案件,裁判年份:2018"),
+                CanonicalParam.ofEncoded(APIScheduler.encodeValue("裁判年份:2018,案件类型:民事案件")));
+    }
+}
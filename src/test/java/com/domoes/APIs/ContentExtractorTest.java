@@ -0,0 +1,82 @@
+package com.domoes.APIs;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import okio.BufferedSource;
+import okio.Okio;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public class ContentExtractorTest {
+
+    private BufferedSource openSample() {
+        InputStream in = getClass().getResourceAsStream("/createcontentjs.txt");
+        Assert.assertNotNull(in);
+        return Okio.buffer(Okio.source(in));
+    }
+
+    @Test
+    public void extractFromSource() throws IOException {
+        ContentExtractor extractor = new ContentExtractor();
+        try (BufferedSource source = openSample()) {
+            Assert.assertTrue(extractor.extract(source));
+        }
+
+        JSONObject caseInfo = JSON.parseObject(extractor.getCaseInfo());
+        Assert.assertEquals("2", caseInfo.getString("案件类型"));
+        Assert.assertEquals("1337", caseInfo.getString("法院ID"));
+
+        String content = extractor.getContent();
+        Assert.assertTrue(content.startsWith("<a type='dir' name='WBSB'></a><div"));
+        Assert.assertTrue(content.endsWith("</div>"));
+        Assert.assertFalse(content.contains("\\\"}"));
+    }
+
+    // 与原来的substring方式结果一致 (除了\"被还原)
+    @Test
+    public void sameAsSubstring() throws IOException {
+        String data;
+        try (BufferedSource source = openSample()) {
+            data = source.readUtf8();
+        }
+
+        int begin = data.indexOf("stringify({");
+        int end = data.indexOf("});", begin);
+        String caseInfo = data.substring(begin + 10, end + 1);
+        begin = data.indexOf("\\\"Html\\\":\\\"");
+        end = data.indexOf("\\\"}\";", begin);
+        String content = data.substring(begin + 11, end);
+
+        ContentExtractor extractor = new ContentExtractor();
+        Assert.assertTrue(extractor.extract(data));
+        Assert.assertEquals(caseInfo, extractor.getCaseInfo());
+        Assert.assertEquals(content.replace("\\\"", "\""), extractor.getContent());
+    }
+
+    @Test
+    public void unescapeQuote() throws IOException {
+        ContentExtractor extractor = new ContentExtractor();
+        String data = "var caseinfo=JSON.stringify({\"a\":\"1\"});var jsonHtmlData = \"{\\\"Html\\\":\\\"<div style=\\\"x\\\">a\\\\b</div>\\\"}\";";
+        Assert.assertTrue(extractor.extract(data));
+        Assert.assertEquals("{\"a\":\"1\"}", extractor.getCaseInfo());
+        Assert.assertEquals("<div style=\"x\">a\\\\b</div>", extractor.getContent());
+
+        // 浏览器返回的数据带有html标签
+        Assert.assertTrue(extractor.extract("<html><head></head><body>" + data + "</body></html>"));
+        Assert.assertEquals("<div style=\"x\">a\\\\b</div>", extractor.getContent());
+    }
+
+    @Test
+    public void invalidData() throws IOException {
+        ContentExtractor extractor = new ContentExtractor();
+        Assert.assertFalse(extractor.extract("<html><script>window.location.href='/Html_Pages/VisitRemind20180914.html'</script></html>"));
+        Assert.assertNull(extractor.getCaseInfo());
+
+        Assert.assertFalse(extractor.extract("stringify({\"a\":\"1\"});var jsonHtmlData = \"{\\\"Html\\\":\\\"<div>"));
+        Assert.assertNotNull(extractor.getCaseInfo());
+        Assert.assertNull(extractor.getContent());
+    }
+}
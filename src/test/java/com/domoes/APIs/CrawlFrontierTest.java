@@ -0,0 +1,23 @@
+package com.domoes.APIs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CrawlFrontierTest {
+
+    @Test
+    public void key() {
+        Assert.assertEquals(CrawlFrontier.key("裁判年份:2018,案件类型:民事案件", 2),
+                CrawlFrontier.key("案件类型:民事案件,裁判年份:2018", 2));
+        Assert.assertNotEquals(CrawlFrontier.key("裁判年份:2018", 1), CrawlFrontier.key("裁判年份:2018", 2));
+    }
+
+    @Test
+    public void expireDays() {
+        CrawlFrontier.init(2, 1, 30);
+        Assert.assertEquals(1, CrawlFrontier.expireDays("案件类型:民事案件", 2019));
+        Assert.assertEquals(1, CrawlFrontier.expireDays("裁判年份:2018", 2019));
+        Assert.assertEquals(30, CrawlFrontier.expireDays("裁判年份:2017", 2019));
+        Assert.assertEquals(30, CrawlFrontier.expireDays("裁判年份:2019,裁判日期:2016-01-01 TO 2016-06-30", 2019));
+    }
+}
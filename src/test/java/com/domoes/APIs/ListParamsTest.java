@@ -3,7 +3,9 @@ package com.domoes.APIs;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.time.LocalDate;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -49,4 +51,47 @@ public class ListParamsTest {
         Assert.assertEquals("1", mapData.get("a"));
         Assert.assertEquals("2", mapData.get("b"));
     }
+
+    @Test
+    public void judgeYears() {
+        String[] years = ListParams.judgeYearsUntil(2020);
+        Assert.assertEquals("1996", years[0]);
+        Assert.assertEquals("2020", years[years.length - 1]);
+        Assert.assertEquals(25, years.length);
+    }
+
+    @Test
+    public void splitDateRange() {
+        // 跨年按年拆分
+        List<LocalDate[]> ranges = ListParams.splitDateRange(LocalDate.of(2016, 3, 5), LocalDate.of(2019, 6, 30), 2);
+        Assert.assertEquals(2, ranges.size());
+        Assert.assertEquals("2016-03-05 TO 2017-12-31", ListParams.formatDateRange(ranges.get(0)[0], ranges.get(0)[1]));
+        Assert.assertEquals("2018-01-01 TO 2019-06-30", ListParams.formatDateRange(ranges.get(1)[0], ranges.get(1)[1]));
+
+        // 同一年按月拆分, 份数不超过月数
+        ranges = ListParams.splitDateRange(LocalDate.of(2018, 1, 1), LocalDate.of(2018, 12, 31), 100);
+        Assert.assertEquals(12, ranges.size());
+        Assert.assertEquals("2018-02-01 TO 2018-02-28", ListParams.formatDateRange(ranges.get(1)[0], ranges.get(1)[1]));
+
+        // 同一月按天拆分
+        ranges = ListParams.splitDateRange(LocalDate.of(2018, 2, 1), LocalDate.of(2018, 2, 28), 3);
+        Assert.assertEquals(3, ranges.size());
+        Assert.assertEquals(LocalDate.of(2018, 2, 28), ranges.get(2)[1]);
+
+        // 只有一天无法拆分
+        Assert.assertNull(ListParams.splitDateRange(LocalDate.of(2018, 2, 1), LocalDate.of(2018, 2, 1), 2));
+    }
+
+    @Test
+    public void subdivideJudgeDates() {
+        Map<String, String> params = new HashMap<>();
+        params.put("裁判年份", "2018");
+        params.put("裁判日期", "2018-03-01 TO 2018-04-30");
+        String[] result = ListParams.subdivideJudgeDates(params, 300);
+        Assert.assertEquals(2, result.length);
+        Map<String, String> first = ListParams.splitParams(result[0]);
+        Assert.assertEquals("2018-03-01 TO 2018-03-31", first.get("裁判日期"));
+        Assert.assertEquals("2018", first.get("裁判年份"));
+        Assert.assertEquals("2018-03-01 TO 2018-04-30", params.get("裁判日期"));
+    }
 }
\ No newline at end of file
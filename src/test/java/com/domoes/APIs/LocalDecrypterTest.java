@@ -0,0 +1,97 @@
+package com.domoes.APIs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class LocalDecrypterTest {
+
+    // 模拟网站脚本: unzip原样返回, Decrypt用RunEval设置的key拼接docId
+    // 'bad'模拟UTF-8错误, 'err'模拟其它脚本错误
+    private static final String siteScript = "function unzip(s) { return s; }" +
+            "var key = '';" +
+            "var com = {str: {Decrypt: function(s) {" +
+            "  if (s == 'bad') throw new Error('Error: Malformed UTF-8 data');" +
+            "  if (s == 'err') throw new Error('undefined is not a function');" +
+            "  return s + key;" +
+            "}}};";
+
+    private static final String docIdPrefix = "a34b1ced-9c80-4509-b353-0588bbb8";
+
+    private static LocalDecrypter decrypter() {
+        LocalDecrypter decrypter = LocalDecrypter.fromSources(Collections.singletonList(siteScript));
+        Assert.assertNotNull(decrypter);
+        return decrypter;
+    }
+
+    @Test
+    public void evalList() throws ScriptException {
+        LocalDecrypter decrypter = decrypter();
+        String data = "([{\"RunEval\":\"key = '8b5e';\",\"Count\":\"2\"},{\"文书ID\":\"" + docIdPrefix + "\",\"案号\":\"（2019）京01民终1号\"}])";
+        List list = decrypter.evalList(data);
+        Assert.assertEquals(2, list.size());
+        Assert.assertEquals("2", ((Map) list.get(0)).get("Count"));
+        Assert.assertEquals("（2019）京01民终1号", ((Map) list.get(1)).get("案号"));
+
+        // RunEval设置的key在解密时生效
+        List ids = decrypter.decryptDocIds(Collections.singletonList(docIdPrefix));
+        Map item = (Map) ids.get(0);
+        Assert.assertEquals(ListContentCrawler.DECRYPT_OK, ((Number) item.get("code")).intValue());
+        Assert.assertEquals(docIdPrefix + "8b5e", item.get("id"));
+        Assert.assertTrue(APIScheduler.isValidDocId((String) item.get("id")));
+    }
+
+    @Test
+    public void decryptDocIdsErrorCodes() throws ScriptException {
+        LocalDecrypter decrypter = decrypter();
+        decrypter.evalList("([{\"RunEval\":\"key = '8b5e';\",\"Count\":\"3\"}])");
+
+        List ids = decrypter.decryptDocIds(Arrays.asList(docIdPrefix, "bad", "err"));
+        Assert.assertEquals(3, ids.size());
+        Assert.assertEquals(ListContentCrawler.DECRYPT_OK, ((Number) ((Map) ids.get(0)).get("code")).intValue());
+        Assert.assertEquals(ListContentCrawler.DECRYPT_MALFORMED, ((Number) ((Map) ids.get(1)).get("code")).intValue());
+        Assert.assertEquals(ListContentCrawler.DECRYPT_SCRIPT_ERROR, ((Number) ((Map) ids.get(2)).get("code")).intValue());
+
+        // 有脚本错误时整页改用浏览器解密, 只有UTF-8错误时不需要
+        Assert.assertFalse(ListContentCrawler.checkLocalDecrypted(ids));
+        Assert.assertTrue(ListContentCrawler.checkLocalDecrypted(ids.subList(0, 2)));
+    }
+
+    @Test
+    public void invalidDocIdFallsBack() throws ScriptException {
+        // 没有执行RunEval时解出来的docId不完整, 与网站不一致
+        List ids = decrypter().decryptDocIds(Collections.singletonList("abc"));
+        Assert.assertFalse(ListContentCrawler.checkLocalDecrypted(ids));
+    }
+
+    @Test
+    public void missingDecryptFunctions() {
+        Assert.assertNull(LocalDecrypter.fromSources(Collections.singletonList("function unzip(s) { return s; }")));
+    }
+
+    @Test
+    public void engineWithoutJavaAccess() throws ScriptException {
+        ScriptEngine engine = LocalDecrypter.createEngine();
+        Assert.assertNotNull(engine);
+
+        // 普通脚本可以执行
+        Assert.assertEquals("abc", engine.eval("['a', 'b', 'c'].join('')"));
+
+        // 不能访问java类
+        Assert.assertEquals("undefined", engine.eval("typeof Java"));
+        Assert.assertEquals("undefined", engine.eval("typeof java"));
+        Assert.assertEquals("undefined", engine.eval("typeof Packages"));
+        try {
+            engine.eval("Java.type('java.lang.Runtime').getRuntime()");
+            Assert.fail("Java.type should not be available");
+        } catch (ScriptException e) {
+            // 预期
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.domoes.APIs;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ProxyPoolTest {
+
+    @Test
+    public void switchIp() throws Exception {
+        // 本地的假代理, 每次切换返回一个新ip
+        AtomicInteger switches = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String body = "<html><body>10.0.0." + switches.incrementAndGet() + ",60,1564000000</body></html>";
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        server.start();
+
+        try {
+            OkHttpClient client = new OkHttpClient.Builder()
+                    .proxy(new Proxy(Proxy.Type.HTTP, server.getAddress()))
+                    .build();
+            ProxyPool.init("http://proxy.abuyun.com/switch-ip", 0.5);
+            String[] result = ProxyPool.switchIp(client);
+            Assert.assertNotNull(result);
+            Assert.assertEquals("10.0.0.1", result[0]);
+            Assert.assertEquals("10.0.0.2", ProxyPool.switchIp(client)[0]);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void evict() {
+        ProxyPool.init("http://proxy.abuyun.com/switch-ip", 0.5);
+        String ip = "10.0.1.1";
+        for (int i = 0; i < 20; i++)
+            Assert.assertFalse(ProxyPool.record(ip, LoadResult.SUCCEED, 100));
+        Assert.assertEquals(1, ProxyPool.score(ip), 0.001);
+
+        // 连续限流后分数下降, 低于0.5时淘汰, 只淘汰一次
+        boolean evicted = false;
+        for (int i = 0; i < 20 && !evicted; i++)
+            evicted = ProxyPool.record(ip, LoadResult.RATE_LIMITED, 100);
+        Assert.assertTrue(evicted);
+        Assert.assertFalse(ProxyPool.record(ip, LoadResult.RATE_LIMITED, 100));
+        Assert.assertFalse(ProxyPool.isUsable(ip));
+        Assert.assertFalse(ProxyPool.record(null, LoadResult.FAILED, 100));
+    }
+
+    @Test
+    public void latency() {
+        ProxyHealth health = new ProxyHealth();
+        for (int i = 0; i < 20; i++)
+            health.record(LoadResult.SUCCEED, 6000);
+        Assert.assertEquals(0.5, health.score(), 0.001);
+    }
+}
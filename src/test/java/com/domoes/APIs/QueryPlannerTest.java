@@ -0,0 +1,50 @@
+package com.domoes.APIs;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class QueryPlannerTest {
+
+    private static void put(Map<String, Integer> known, Map<String, String> params, String key, String value, int count) {
+        Map<String, String> child = new HashMap<>(params);
+        child.put(key, value);
+        known.put(CanonicalParam.of(child), count);
+    }
+
+    @Test
+    public void chooseDimension() {
+        Map<String, String> params = new HashMap<>();
+        params.put("文书类型", "判决书");
+        params.put("审判程序", "一审");
+        Map<String, Integer> known = new HashMap<>();
+
+        // 没有统计数据时使用默认顺序
+        Assert.assertEquals("案件类型", QueryPlanner.chooseDimension(params, 1000, known));
+
+        // 只有法院层级有统计数据
+        put(known, params, "法院层级", "最高法院", 0);
+        put(known, params, "法院层级", "高级法院", 50);
+        put(known, params, "法院层级", "中级法院", 400);
+        put(known, params, "法院层级", "基层法院", 550);
+        Assert.assertEquals("法院层级", QueryPlanner.chooseDimension(params, 1000, known));
+
+        // 案件类型拆分后都不超过200条, 需要的请求更少
+        put(known, params, "案件类型", "刑事案件", 190);
+        put(known, params, "案件类型", "民事案件", 190);
+        put(known, params, "案件类型", "行政案件", 190);
+        put(known, params, "案件类型", "赔偿案件", 0);
+        put(known, params, "案件类型", "执行案件", 190);
+        Assert.assertEquals("案件类型", QueryPlanner.chooseDimension(params, 760, known));
+    }
+
+    @Test
+    public void requestCost() {
+        Assert.assertEquals(0, QueryPlanner.requestCost(0, true));
+        Assert.assertEquals(1, QueryPlanner.requestCost(0, false));
+        Assert.assertEquals(20, QueryPlanner.requestCost(200, true));
+        Assert.assertTrue(QueryPlanner.requestCost(201, true) > QueryPlanner.requestCost(200, true) + 1);
+    }
+}
@@ -0,0 +1,68 @@
+package com.domoes.kafka;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+public class OffsetTrackerTest {
+    private TopicPartition p0 = new TopicPartition("courtcrawls", 0);
+    private TopicPartition p1 = new TopicPartition("courtcrawls", 1);
+
+    @Test
+    public void commitContiguous() {
+        OffsetTracker tracker = new OffsetTracker();
+        tracker.add(p0, 10);
+        tracker.add(p0, 11);
+        tracker.add(p0, 12);
+
+        // 第一条没有完成时只能提交到10
+        tracker.complete(p0, 11);
+        tracker.complete(p0, 12);
+        Map<TopicPartition, OffsetAndMetadata> offsets = tracker.commitable();
+        Assert.assertEquals(10, offsets.get(p0).offset());
+        Assert.assertEquals(1, tracker.pendingCount());
+
+        tracker.complete(p0, 10);
+        offsets = tracker.commitable();
+        Assert.assertEquals(13, offsets.get(p0).offset());
+        Assert.assertEquals(0, tracker.pendingCount());
+    }
+
+    @Test
+    public void onlyAdvancedPartitions() {
+        OffsetTracker tracker = new OffsetTracker();
+        tracker.add(p0, 0);
+        tracker.add(p1, 5);
+        tracker.complete(p0, 0);
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = tracker.commitable();
+        tracker.committed(offsets);
+        Assert.assertEquals(1, offsets.get(p0).offset());
+        Assert.assertEquals(5, offsets.get(p1).offset());
+
+        // 已提交的位置不再返回
+        Assert.assertTrue(tracker.commitable().isEmpty());
+
+        tracker.complete(p1, 5);
+        offsets = tracker.commitable();
+        Assert.assertEquals(1, offsets.size());
+        Assert.assertEquals(6, offsets.get(p1).offset());
+    }
+
+    @Test
+    public void removePartition() {
+        OffsetTracker tracker = new OffsetTracker();
+        tracker.add(p0, 0);
+        tracker.add(p1, 0);
+        tracker.remove(Collections.singletonList(p0));
+
+        // 已移除partition的完成通知被忽略
+        tracker.complete(p0, 0);
+        Assert.assertEquals(1, tracker.pendingCount());
+        Assert.assertFalse(tracker.commitable().containsKey(p0));
+    }
+}
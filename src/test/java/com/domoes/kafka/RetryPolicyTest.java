@@ -0,0 +1,23 @@
+package com.domoes.kafka;
+
+import com.domoes.APIs.LoadResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+    @Test
+    public void backoff() {
+        Assert.assertEquals(10 * 1000L, RetryPolicy.delayMillis(LoadResult.REMIND_KEY, 0));
+        Assert.assertEquals(60 * 1000L, RetryPolicy.delayMillis(LoadResult.REMIND_KEY, 1));
+        Assert.assertEquals(60 * 1000L, RetryPolicy.delayMillis(LoadResult.RATE_LIMITED, 0));
+        Assert.assertEquals(600 * 1000L, RetryPolicy.delayMillis(LoadResult.RATE_LIMITED, 1));
+        Assert.assertEquals(600 * 1000L, RetryPolicy.delayMillis(LoadResult.FAILED, 10));
+    }
+
+    @Test
+    public void retryTopic() {
+        Assert.assertEquals("courtcrawls.retry.10s", RetryScheduler.topicFor("courtcrawls", 5000));
+        Assert.assertEquals("courtcrawls.retry.1m", RetryScheduler.topicFor("courtcrawls", 60 * 1000L));
+        Assert.assertEquals("courtcrawls.retry.10m", RetryScheduler.topicFor("courtcrawls", 3600 * 1000L));
+    }
+}
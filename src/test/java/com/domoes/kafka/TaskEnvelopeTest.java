@@ -0,0 +1,56 @@
+package com.domoes.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class TaskEnvelopeTest {
+    @Test
+    public void encodeDecode() {
+        byte[] message = "{\"Param\":\"案件类型:刑事案件\",\"Index\":\"1\"}".getBytes(StandardCharsets.UTF_8);
+        ProducerRecord<byte[], byte[]> sent = TaskEnvelope.encode("courtcrawls", TaskMQ.TAG_API_LIST, message);
+        Assert.assertArrayEquals(message, sent.value());
+
+        // 相同的任务key相同
+        Assert.assertArrayEquals(sent.key(), TaskEnvelope.encode("courtcrawls", TaskMQ.TAG_API_LIST, message).key());
+
+        ConsumerRecord<byte[], byte[]> received = new ConsumerRecord<>("courtcrawls", 0, 0, sent.key(), sent.value());
+        for (Header header : sent.headers())
+            received.headers().add(header);
+
+        TaskEnvelope envelope = TaskEnvelope.decode(received);
+        Assert.assertNotNull(envelope);
+        Assert.assertEquals(TaskMQ.TAG_API_LIST, envelope.getTag());
+        Assert.assertEquals(new String(message, StandardCharsets.UTF_8), envelope.getValue());
+    }
+
+    @Test
+    public void retryHeaders() {
+        byte[] message = "a34b1ced-9c80-4509-b353-0588bbb88b5e".getBytes(StandardCharsets.UTF_8);
+        ProducerRecord<byte[], byte[]> sent = TaskEnvelope.encode("courtcrawls.retry.1m", TaskMQ.TAG_API_DOC, message, 3, 1564000000000L);
+
+        ConsumerRecord<byte[], byte[]> received = new ConsumerRecord<>("courtcrawls.retry.1m", 0, 0, sent.key(), sent.value());
+        for (Header header : sent.headers())
+            received.headers().add(header);
+
+        TaskEnvelope envelope = TaskEnvelope.decode(received);
+        Assert.assertNotNull(envelope);
+        Assert.assertEquals(3, envelope.getAttempts());
+        Assert.assertEquals(1564000000000L, envelope.getDue());
+    }
+
+    @Test
+    public void decodeJson() {
+        String json = "{\"tag\":\"TagApiDoc\",\"value\":\"abc123\"}";
+        TaskEnvelope envelope = TaskEnvelope.decode(new ConsumerRecord<>("courtcrawls", 0, 0, null, json.getBytes(StandardCharsets.UTF_8)));
+        Assert.assertNotNull(envelope);
+        Assert.assertEquals(TaskMQ.TAG_API_DOC, envelope.getTag());
+        Assert.assertEquals("abc123", envelope.getValue());
+
+        Assert.assertNull(TaskEnvelope.decode(new ConsumerRecord<>("courtcrawls", 0, 0, null, "abc".getBytes(StandardCharsets.UTF_8))));
+    }
+}
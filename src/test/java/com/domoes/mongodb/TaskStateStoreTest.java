@@ -0,0 +1,38 @@
+package com.domoes.mongodb;
+
+import com.domoes.APIs.CrawlFrontier;
+import org.bson.Document;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+public class TaskStateStoreTest {
+
+    @Test
+    public void finishedWithoutExpires() {
+        Assert.assertTrue(TaskStateStore.isFinished(new Document("finished", true), System.currentTimeMillis()));
+    }
+
+    @Test
+    public void finishedExpiresWithFrontier() {
+        CrawlFrontier.init(2, 1, 30);
+        int year = LocalDate.now().getYear();
+        long now = System.currentTimeMillis();
+        long day = TimeUnit.DAYS.toMillis(1);
+
+        // 最近年份的列表任务1天后由frontier重新生成, 这时完成状态已经过期, 不会被跳过
+        Date recent = CrawlFrontier.finishedUntil("裁判年份:" + year, now);
+        Document doc = new Document("finished", true).append("expires", recent);
+        Assert.assertTrue(TaskStateStore.isFinished(doc, now + day - 1));
+        Assert.assertFalse(TaskStateStore.isFinished(doc, now + day));
+
+        // 更早年份的任务30天内都算已完成
+        Date stale = CrawlFrontier.finishedUntil("裁判年份:" + (year - 5), now);
+        doc = new Document("finished", true).append("expires", stale);
+        Assert.assertTrue(TaskStateStore.isFinished(doc, now + 29 * day));
+        Assert.assertFalse(TaskStateStore.isFinished(doc, now + 30 * day));
+    }
+}
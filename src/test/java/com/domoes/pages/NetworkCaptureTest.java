@@ -0,0 +1,26 @@
+package com.domoes.pages;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NetworkCaptureTest {
+
+    @Test
+    public void formValue() {
+        // 表单字段保持url编码, 与API LIST任务中的Param一致
+        NetworkCapture.Captured captured = new NetworkCapture.Captured("http://wenshu.court.gov.cn/List/ListContent",
+                "Param=%E6%A1%88%E4%BB%B6%E7%B1%BB%E5%9E%8B%3A%E5%88%91%E4%BA%8B%E6%A1%88%E4%BB%B6&Index=1&Page=10&Order=");
+        Assert.assertEquals("%E6%A1%88%E4%BB%B6%E7%B1%BB%E5%9E%8B%3A%E5%88%91%E4%BA%8B%E6%A1%88%E4%BB%B6", captured.formValue("Param"));
+        Assert.assertEquals("1", captured.formValue("Index"));
+        Assert.assertEquals("", captured.formValue("Order"));
+        Assert.assertNull(captured.formValue("Direction"));
+    }
+
+    @Test
+    public void urlParam() {
+        NetworkCapture.Captured captured = new NetworkCapture.Captured(
+                "http://wenshu.court.gov.cn/CreateContentJS/CreateContentJS.aspx?DocID=a34b1ced-9c80-4509-b353-0588bbb88b5e", null);
+        Assert.assertEquals("a34b1ced-9c80-4509-b353-0588bbb88b5e", captured.urlParam("DocID"));
+        Assert.assertNull(captured.formValue("Param"));
+    }
+}
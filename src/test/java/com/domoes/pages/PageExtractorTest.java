@@ -0,0 +1,33 @@
+package com.domoes.pages;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PageExtractorTest {
+
+    @Test
+    public void parseListPage() {
+        String json = "{\"count\":\"235\",\"page\":\"1\",\"text\":\"\",\"items\":[{\"id\":\"dataItem1\",\"title\":\"张三盗窃一案\","
+                + "\"casecourt\":\"北京市第一中级人民法院\",\"casenumber\":\"（2019）京01刑终1号\",\"judgedate\":\"2019-07-01\","
+                + "\"ajlx\":\"刑事案件, 二审\",\"glws\":\"\"}]}";
+        PageExtractor.ListPage page = PageExtractor.parseListPage(json);
+        Assert.assertNotNull(page);
+        Assert.assertEquals("235", page.getDataCount());
+        Assert.assertEquals("1", page.getCurrentPage());
+        Assert.assertEquals(1, page.getItems().size());
+        Assert.assertEquals("（2019）京01刑终1号", page.getItems().get(0).get("casenumber"));
+        Assert.assertEquals("刑事案件, 二审", page.getItems().get(0).get("ajlx"));
+    }
+
+    @Test
+    public void parseEmptyListPage() {
+        // 没有文书时带回resultList的提示内容
+        PageExtractor.ListPage page = PageExtractor.parseListPage("{\"count\":null,\"page\":null,\"text\":\"无符合条件的数据...\",\"items\":[]}");
+        Assert.assertNotNull(page);
+        Assert.assertNull(page.getDataCount());
+        Assert.assertTrue(page.getItems().isEmpty());
+        Assert.assertEquals("无符合条件的数据...", page.getText());
+
+        Assert.assertNull(PageExtractor.parseListPage("not json"));
+    }
+}